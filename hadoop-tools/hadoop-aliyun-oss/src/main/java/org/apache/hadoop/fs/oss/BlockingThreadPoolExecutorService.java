@@ -0,0 +1,156 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.oss;
+
+import org.slf4j.Logger;
+
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An executor which blocks the submission of new tasks when its queue is already full, instead
+ * of queueing an unbounded number of parts in memory. Task submissions require permits, task
+ * completions release them.
+ * <p/>
+ * Same idea as the BlockingThreadPoolExecutorService of hadoop-aws, without the guava
+ * listening decorator.
+ */
+class BlockingThreadPoolExecutorService extends AbstractExecutorService {
+  public static final Logger LOG = OSSFileSystem.LOG;
+
+  private static final AtomicInteger POOL_NUMBER = new AtomicInteger(1);
+
+  private final Semaphore queueingPermits;
+  private final ThreadPoolExecutor executor;
+
+  /**
+   * A thread pool that blocks clients submitting additional tasks if there are already
+   * {@code activeTasks} running threads and {@code waitingTasks} tasks waiting in its queue.
+   *
+   * @param activeTasks   maximum number of active tasks
+   * @param waitingTasks  maximum number of waiting tasks
+   * @param keepAliveTime time until idle threads are cleaned up in {@code unit}
+   * @param unit          time unit
+   * @param prefixName    prefix of name for threads
+   */
+  BlockingThreadPoolExecutorService(int activeTasks, int waitingTasks, long keepAliveTime,
+                                    TimeUnit unit, String prefixName) {
+    queueingPermits = new Semaphore(activeTasks + waitingTasks);
+    // permits are released before a worker picks the next task, so the queue must be able to
+    // hold every permitted task
+    executor = new ThreadPoolExecutor(activeTasks, activeTasks, keepAliveTime, unit,
+            new LinkedBlockingQueue<Runnable>(activeTasks + waitingTasks),
+            newDaemonThreadFactory(prefixName),
+            new RejectedExecutionHandler() {
+              @Override
+              public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                if (!executor.isShutdown()) {
+                  // This is not expected to happen.
+                  LOG.error("Could not submit task to executor {}", executor);
+                }
+                throw new RejectedExecutionException("Task rejected by " + executor);
+              }
+            });
+    executor.allowCoreThreadTimeOut(true);
+  }
+
+  private static ThreadFactory newDaemonThreadFactory(final String prefix) {
+    final int poolNumber = POOL_NUMBER.getAndIncrement();
+    return new ThreadFactory() {
+      private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, prefix + "-pool" + poolNumber + "-t" + threadNumber.getAndIncrement());
+        t.setDaemon(true);
+        t.setPriority(Thread.NORM_PRIORITY);
+        return t;
+      }
+    };
+  }
+
+  /**
+   * Run the task, waiting for a free slot if the pool and its queue are full.
+   *
+   * @throws RejectedExecutionException if interrupted while waiting or if the pool is shut down
+   */
+  @Override
+  public void execute(final Runnable command) {
+    try {
+      queueingPermits.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RejectedExecutionException("Interrupted while waiting to submit a task", e);
+    }
+    try {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            command.run();
+          } finally {
+            queueingPermits.release();
+          }
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      queueingPermits.release();
+      throw e;
+    }
+  }
+
+  @Override
+  public void shutdown() {
+    executor.shutdown();
+  }
+
+  @Override
+  public List<Runnable> shutdownNow() {
+    return executor.shutdownNow();
+  }
+
+  @Override
+  public boolean isShutdown() {
+    return executor.isShutdown();
+  }
+
+  @Override
+  public boolean isTerminated() {
+    return executor.isTerminated();
+  }
+
+  @Override
+  public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+    return executor.awaitTermination(timeout, unit);
+  }
+
+  @Override
+  public String toString() {
+    return "BlockingThreadPoolExecutorService{" + executor + ", available permits="
+            + queueingPermits.availablePermits() + "}";
+  }
+}
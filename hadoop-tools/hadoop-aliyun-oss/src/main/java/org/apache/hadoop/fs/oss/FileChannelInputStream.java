@@ -0,0 +1,109 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.oss;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads a region of a file with positioned reads of a shared {@link FileChannel}, so that the
+ * parts of a multipart upload are read concurrently without opening the file for each part or
+ * skipping to its offset.
+ * <p/>
+ * The stream supports mark and reset, which the OSS SDK uses to retry a request instead of
+ * wrapping the stream into a buffering one. Closing the stream leaves the channel open.
+ */
+class FileChannelInputStream extends InputStream {
+  private final FileChannel channel;
+  private final long end;
+  private long position;
+  private long mark;
+  private boolean closed;
+  private final byte[] single = new byte[1];
+
+  /**
+   * @param channel the channel of the file, owned by the caller
+   * @param start   offset of the region in the file
+   * @param length  length of the region
+   */
+  FileChannelInputStream(FileChannel channel, long start, long length) {
+    this.channel = channel;
+    this.end = start + length;
+    this.position = start;
+    this.mark = start;
+  }
+
+  @Override
+  public int read() throws IOException {
+    return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+  }
+
+  @Override
+  public int read(byte[] b, int off, int len) throws IOException {
+    if (closed) {
+      throw new IOException("Stream is closed");
+    }
+    if (len == 0) {
+      return 0;
+    }
+    if (position >= end) {
+      return -1;
+    }
+    int read = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, end - position)), position);
+    if (read < 0) {
+      throw new IOException("File ended at " + position + " before the end of its region at " + end);
+    }
+    position += read;
+    return read;
+  }
+
+  @Override
+  public long skip(long n) {
+    long skipped = Math.max(0, Math.min(n, end - position));
+    position += skipped;
+    return skipped;
+  }
+
+  @Override
+  public int available() {
+    return (int) Math.min(Integer.MAX_VALUE, end - position);
+  }
+
+  @Override
+  public boolean markSupported() {
+    return true;
+  }
+
+  @Override
+  public synchronized void mark(int readLimit) {
+    mark = position;
+  }
+
+  @Override
+  public synchronized void reset() {
+    position = mark;
+  }
+
+  @Override
+  public void close() {
+    closed = true;
+  }
+}
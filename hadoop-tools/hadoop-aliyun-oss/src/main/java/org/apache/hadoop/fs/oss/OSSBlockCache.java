@@ -0,0 +1,454 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.oss;
+
+import com.aliyun.oss.ClientException;
+import com.aliyun.oss.OSSClient;
+import com.aliyun.oss.OSSErrorCode;
+import com.aliyun.oss.OSSException;
+import com.aliyun.oss.model.GetObjectRequest;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.LocalDirAllocator;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.io.MD5Hash;
+import org.slf4j.Logger;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keeps blocks of OSS objects in files on local disks, so that objects read again, by this or
+ * any other process of the node, are served from the disk.
+ * <p/>
+ * A block is named after the bucket, key, ETag, block size and index, so a replaced object never
+ * hits the blocks of its previous version, which are aged out. Blocks are placed on the
+ * directories of fs.oss.extra.block.cache.dirs by a {@link LocalDirAllocator}, downloaded to a
+ * temporary file and renamed into place, so readers never see a partial block, and read through
+ * read-only memory mappings.
+ * <p/>
+ * Processes of the node coordinate through lock files: a block is claimed under a lock by one
+ * process with a claim file, downloaded by it outside the lock while the others poll for it, and
+ * one process at a time evicts the least recently used blocks when the cache grows over its size.
+ * Blocks are downloaded with the ETag they are named after as a condition, so a replaced object
+ * fails the read instead of caching its new content under the old name. Every hit refreshes the modification time of the block,
+ * which is the access time eviction orders by.
+ */
+class OSSBlockCache {
+  public static final Logger LOG = OSSFileSystem.LOG;
+
+  private static final String BLOCK_SUFFIX = ".block";
+  private static final String TMP_SUFFIX = ".tmp";
+  private static final String CLAIM_SUFFIX = ".claim";
+  // number of lock files, and of JVM locks in front of them, blocks are hashed over
+  private static final int LOCK_STRIPES = 64;
+  // JVM locks are needed as well since a JVM cannot hold two locks on one file
+  private static final ReentrantLock[] JVM_LOCKS = new ReentrantLock[LOCK_STRIPES + 1];
+  // temporary files older than this are left by dead processes
+  private static final long TMP_FILE_MAX_AGE = 60 * 60 * 1000L;
+  // claims older than this are left by dead or stuck processes, and taken over
+  private static final long CLAIM_MAX_AGE = 5 * 60 * 1000L;
+  // milliseconds between checks for a block claimed by another thread or process
+  private static final long CLAIM_POLL_INTERVAL = 50;
+
+  static {
+    for (int i = 0; i < JVM_LOCKS.length; i++) {
+      JVM_LOCKS[i] = new ReentrantLock();
+    }
+  }
+
+  private final OSSClient client;
+  private final Configuration conf;
+  private final LocalDirAllocator allocator;
+  private final File lockDir;
+  private final int blockSize;
+  private final long maxSize;
+  // bytes added since the size of the cache was last checked
+  private final AtomicLong addedBytes = new AtomicLong();
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  /**
+   * @param blockSize size of the cached blocks, the last block of an object may be shorter
+   * @param maxSize   bytes of blocks kept on the node, over all directories
+   */
+  OSSBlockCache(OSSClient client, Configuration fsConf, int blockSize, long maxSize) throws IOException {
+    this.client = client;
+    this.conf = new Configuration(fsConf);
+    if (conf.getTrimmed(SmartOSSClientConfig.HADOOP_BLOCK_CACHE_DIRS) == null) {
+      conf.set(SmartOSSClientConfig.HADOOP_BLOCK_CACHE_DIRS, conf.get("hadoop.tmp.dir") + "/oss-block-cache");
+    }
+    this.allocator = new LocalDirAllocator(SmartOSSClientConfig.HADOOP_BLOCK_CACHE_DIRS);
+    this.lockDir = new File(conf.getTrimmedStrings(SmartOSSClientConfig.HADOOP_BLOCK_CACHE_DIRS)[0], "locks");
+    if (!lockDir.isDirectory() && !lockDir.mkdirs() && !lockDir.isDirectory()) {
+      throw new IOException("Cannot create the lock directory " + lockDir);
+    }
+    this.blockSize = blockSize;
+    this.maxSize = maxSize;
+  }
+
+  int getBlockSize() {
+    return blockSize;
+  }
+
+  long getHits() {
+    return hits.get();
+  }
+
+  long getMisses() {
+    return misses.get();
+  }
+
+  /**
+   * Get a block of an object, downloading it if no process of the node has it.
+   *
+   * @param contentLength length of the object
+   * @param index         index of the block, the block starts at index * block size
+   * @return a read-only buffer of the block, positioned at 0
+   */
+  ByteBuffer getBlock(String bucket, String key, String eTag, long contentLength, long index)
+          throws IOException {
+    long start = index * blockSize;
+    long length = Math.min(blockSize, contentLength - start);
+    String name = blockName(bucket, key, eTag, index);
+
+    File block = find(name, length);
+    if (block != null) {
+      // the modification time is the access time of the LRU
+      block.setLastModified(System.currentTimeMillis());
+      try {
+        ByteBuffer buffer = map(block, length);
+        hits.incrementAndGet();
+        return buffer;
+      } catch (FileNotFoundException e) {
+        // evicted by another process since it was found, download it again
+        if (LOG.isDebugEnabled()) {
+          LOG.debug("Cached block " + block + " was evicted while being read");
+        }
+      }
+    }
+
+    ByteBuffer buffer = null;
+    int stripe = (name.hashCode() & Integer.MAX_VALUE) % LOCK_STRIPES;
+    File claim = new File(lockDir, name.replace('/', '-') + CLAIM_SUFFIX);
+    while (buffer == null) {
+      boolean claimed;
+      Lock lock = lock(stripe);
+      try {
+        // another thread or process may have downloaded it while we waited
+        block = find(name, length);
+        if (block != null) {
+          try {
+            buffer = map(block, length);
+            hits.incrementAndGet();
+            return buffer;
+          } catch (FileNotFoundException e) {
+            // evicted since it was found, download it again
+          }
+        }
+        if (claim.exists() && System.currentTimeMillis() - claim.lastModified() > CLAIM_MAX_AGE) {
+          LOG.warn("Taking over the stale claim " + claim);
+          claim.delete();
+        }
+        claimed = claim.createNewFile();
+      } finally {
+        lock.release();
+      }
+
+      if (!claimed) {
+        // downloaded by another thread or process, or it gave up, look again
+        try {
+          Thread.sleep(CLAIM_POLL_INTERVAL);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("Interrupted while waiting for block " + index + " of " + key);
+        }
+        continue;
+      }
+      try {
+        misses.incrementAndGet();
+        block = download(bucket, key, eTag, name, start, length);
+        // mapped before any eviction, the mapping stays valid if the file is deleted
+        buffer = map(block, length);
+      } finally {
+        claim.delete();
+      }
+    }
+
+    if (addedBytes.addAndGet(length) > maxSize / 16) {
+      addedBytes.set(0);
+      evict();
+    }
+    return buffer;
+  }
+
+  /**
+   * @return the file of the block, or null if it is not cached
+   */
+  private File find(String name, long length) throws IOException {
+    if (!allocator.ifExists(name, conf)) {
+      return null;
+    }
+    File block;
+    try {
+      block = new File(allocator.getLocalPathToRead(name, conf).toUri().getPath());
+    } catch (IOException e) {
+      // evicted since
+      return null;
+    }
+    if (block.length() != length) {
+      LOG.warn("Dropping cached block " + block + " of " + block.length() + " bytes instead of " + length);
+      block.delete();
+      return null;
+    }
+    return block;
+  }
+
+  private File download(String bucket, String key, String eTag, String name, long start, long length)
+          throws IOException {
+    Path path = allocator.getLocalPathForWrite(name, length, conf);
+    File block = new File(path.toUri().getPath());
+    File dir = block.getParentFile();
+    if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory()) {
+      throw new IOException("Cannot create the cache directory " + dir);
+    }
+    File tmp = new File(dir, block.getName() + "-" + UUID.randomUUID() + TMP_SUFFIX);
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Caching [" + start + ", " + (start + length) + ") of " + key + " in " + block);
+    }
+
+    GetObjectRequest request = new GetObjectRequest(bucket, key);
+    request.setRange(start, start + length - 1);
+    request.setMatchingETagConstraints(Collections.singletonList(eTag));
+    boolean done = false;
+    try {
+      InputStream in;
+      try {
+        in = client.getObject(request).getObjectContent();
+      } catch (OSSException e) {
+        if (OSSErrorCode.PRECONDITION_FAILED.equals(e.getErrorCode())) {
+          throw new IOException(key + " changed since it was opened, its ETag is no longer " + eTag, e);
+        }
+        throw new IOException("Failed to read [" + start + ", " + (start + length) + ") of " + key, e);
+      } catch (ClientException e) {
+        throw new IOException("Failed to read [" + start + ", " + (start + length) + ") of " + key, e);
+      }
+      OutputStream out = new FileOutputStream(tmp);
+      try {
+        IOUtils.copyBytes(in, out, 64 * SmartOSSClientConfig.KB, false);
+      } finally {
+        IOUtils.closeStream(out);
+        in.close();
+      }
+      if (tmp.length() != length) {
+        throw new IOException("Read " + tmp.length() + " bytes instead of " + length + " at " + start + " of " + key);
+      }
+      if (!tmp.renameTo(block)) {
+        throw new IOException("Cannot rename " + tmp + " to " + block);
+      }
+      done = true;
+    } finally {
+      if (!done) {
+        tmp.delete();
+      }
+    }
+    return block;
+  }
+
+  private static ByteBuffer map(File block, long length) throws IOException {
+    RandomAccessFile file = new RandomAccessFile(block, "r");
+    try {
+      // the mapping stays valid after the channel is closed, and after the file is evicted
+      return file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+    } finally {
+      file.close();
+    }
+  }
+
+  /**
+   * Delete the least recently used blocks until the cache is back under 90% of its size, unless
+   * another process is already doing so.
+   */
+  void evict() {
+    Lock lock;
+    try {
+      lock = tryLock(LOCK_STRIPES);
+    } catch (IOException e) {
+      LOG.warn("Cannot lock the block cache for eviction: " + e);
+      return;
+    }
+    if (lock == null) {
+      return;
+    }
+    try {
+      List<File> blocks = new ArrayList<File>();
+      long total = 0;
+      long now = System.currentTimeMillis();
+      File[] claims = lockDir.listFiles();
+      for (File claim : claims == null ? new File[0] : claims) {
+        if (claim.getName().endsWith(CLAIM_SUFFIX) && now - claim.lastModified() > TMP_FILE_MAX_AGE) {
+          claim.delete();
+        }
+      }
+      for (Path root : allocator.getAllLocalPathsToRead(".", conf)) {
+        File[] dirs = new File(root.toUri().getPath()).listFiles();
+        for (File dir : dirs == null ? new File[0] : dirs) {
+          File[] files = dir.getName().equals(lockDir.getName()) ? null : dir.listFiles();
+          for (File file : files == null ? new File[0] : files) {
+            if (file.getName().endsWith(BLOCK_SUFFIX)) {
+              blocks.add(file);
+              total += file.length();
+            } else if (file.getName().endsWith(TMP_SUFFIX) && now - file.lastModified() > TMP_FILE_MAX_AGE) {
+              file.delete();
+            }
+          }
+        }
+      }
+      if (total <= maxSize) {
+        return;
+      }
+      final long[] accessed = new long[blocks.size()];
+      final List<File> order = blocks;
+      List<Integer> indexes = new ArrayList<Integer>(blocks.size());
+      for (int i = 0; i < blocks.size(); i++) {
+        accessed[i] = blocks.get(i).lastModified();
+        indexes.add(i);
+      }
+      Collections.sort(indexes, new Comparator<Integer>() {
+        @Override
+        public int compare(Integer a, Integer b) {
+          return Long.compare(accessed[a], accessed[b]);
+        }
+      });
+      long target = maxSize / 10 * 9;
+      for (int i = 0; i < indexes.size() && total > target; i++) {
+        File block = order.get(indexes.get(i));
+        long length = block.length();
+        if (block.delete()) {
+          total -= length;
+        }
+      }
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Evicted blocks of the cache down to " + total + " bytes");
+      }
+    } catch (IOException e) {
+      LOG.warn("Failed to evict blocks of the cache: " + e);
+    } finally {
+      lock.release();
+    }
+  }
+
+  /**
+   * Name of the file of a block, spread over 256 sub-directories.
+   */
+  private String blockName(String bucket, String key, String eTag, long index) {
+    String hash = MD5Hash.digest(bucket + "\n" + key + "\n" + eTag).toString();
+    return hash.substring(0, 2) + "/" + hash + "-" + blockSize + "-" + index + BLOCK_SUFFIX;
+  }
+
+  private Lock lock(int stripe) throws IOException {
+    ReentrantLock jvmLock = JVM_LOCKS[stripe];
+    try {
+      jvmLock.lockInterruptibly();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while locking the block cache");
+    }
+    RandomAccessFile file = null;
+    try {
+      file = new RandomAccessFile(new File(lockDir, stripe + ".lock"), "rw");
+      return new Lock(jvmLock, file, file.getChannel().lock());
+    } catch (IOException | RuntimeException e) {
+      IOUtils.closeStream(file);
+      jvmLock.unlock();
+      throw e;
+    }
+  }
+
+  /**
+   * @return the lock, or null if a thread or process holds it
+   */
+  private Lock tryLock(int stripe) throws IOException {
+    ReentrantLock jvmLock = JVM_LOCKS[stripe];
+    if (!jvmLock.tryLock()) {
+      return null;
+    }
+    RandomAccessFile file = null;
+    try {
+      file = new RandomAccessFile(new File(lockDir, stripe + ".lock"), "rw");
+      FileLock fileLock = file.getChannel().tryLock();
+      if (fileLock == null) {
+        file.close();
+        jvmLock.unlock();
+        return null;
+      }
+      return new Lock(jvmLock, file, fileLock);
+    } catch (IOException | OverlappingFileLockException e) {
+      IOUtils.closeStream(file);
+      jvmLock.unlock();
+      if (e instanceof IOException) {
+        throw (IOException) e;
+      }
+      return null;
+    }
+  }
+
+  /**
+   * A lock held by this thread in the JVM and by this process on the node.
+   */
+  private static final class Lock {
+    private final ReentrantLock jvmLock;
+    private final RandomAccessFile file;
+    private final FileLock fileLock;
+
+    Lock(ReentrantLock jvmLock, RandomAccessFile file, FileLock fileLock) {
+      this.jvmLock = jvmLock;
+      this.file = file;
+      this.fileLock = fileLock;
+    }
+
+    void release() {
+      try {
+        fileLock.release();
+      } catch (IOException e) {
+        LOG.debug("Failed to release " + fileLock + ": " + e);
+      } finally {
+        IOUtils.closeStream(file);
+        jvmLock.unlock();
+      }
+    }
+  }
+}
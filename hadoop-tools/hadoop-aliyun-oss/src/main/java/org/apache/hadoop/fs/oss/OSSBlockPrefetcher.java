@@ -0,0 +1,223 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.oss;
+
+import com.aliyun.oss.ClientException;
+import com.aliyun.oss.OSSClient;
+import com.aliyun.oss.OSSException;
+import com.aliyun.oss.model.GetObjectRequest;
+import org.apache.hadoop.io.IOUtils;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Splits an OSS object into fixed-size blocks and fetches them with concurrent ranged GETs.
+ * <p/>
+ * Each {@link OSSInputStream} in parallel read-ahead mode owns one prefetcher. Blocks are kept
+ * in a small access-ordered LRU, and every block request schedules the next few blocks on the
+ * shared read-ahead pool, so sequential scans are served by several connections at once.
+ * If the pool is saturated the prefetch is simply skipped, and a block that is needed right away
+ * is fetched on the caller thread instead.
+ */
+class OSSBlockPrefetcher {
+  public static final Logger LOG = OSSFileSystem.LOG;
+
+  private final String bucket;
+  private final String key;
+  private final long contentLength;
+  private final OSSClient client;
+  private final ExecutorService executor;
+  private final int blockSize;
+  private final int prefetchBlocks;
+  private final long blockCount;
+  private final LinkedHashMap<Long, Future<byte[]>> blocks;
+
+  OSSBlockPrefetcher(String bucket, String key, long contentLength, OSSClient client,
+                     ExecutorService executor, int blockSize, int prefetchBlocks, int cacheBlocks) {
+    this.bucket = bucket;
+    this.key = key;
+    this.contentLength = contentLength;
+    this.client = client;
+    this.executor = executor;
+    this.blockSize = blockSize;
+    this.prefetchBlocks = prefetchBlocks;
+    this.blockCount = (contentLength + blockSize - 1) / blockSize;
+    // the current block and everything prefetched after it must fit, or prefetched blocks
+    // would be evicted before they are read
+    final int capacity = Math.max(cacheBlocks, prefetchBlocks + 1);
+    this.blocks = new LinkedHashMap<Long, Future<byte[]>>(capacity + 1, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Long, Future<byte[]>> eldest) {
+        if (size() > capacity) {
+          eldest.getValue().cancel(false);
+          return true;
+        }
+        return false;
+      }
+    };
+  }
+
+  int getBlockSize() {
+    return blockSize;
+  }
+
+  /**
+   * Start fetching the first blocks of the object, so the first read does not wait for a full
+   * round trip.
+   */
+  synchronized void prefetchFrom(long position) {
+    if (position < contentLength) {
+      long index = position / blockSize;
+      if (!blocks.containsKey(index)) {
+        submit(index);
+      }
+      prefetchAfter(index);
+    }
+  }
+
+  /**
+   * Return the block containing the given position, waiting for it if it is still being fetched.
+   *
+   * @param position offset in the object, must be less than the content length
+   * @return the content of the block, the last block of an object may be shorter than the block size
+   * @throws IOException if the block could not be fetched
+   */
+  synchronized byte[] getBlock(long position) throws IOException {
+    long index = position / blockSize;
+    Future<byte[]> future = blocks.get(index);
+    if (future == null || future.isCancelled()) {
+      future = submit(index);
+    }
+    prefetchAfter(index);
+
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for block " + index + " of " + key);
+    } catch (ExecutionException e) {
+      // drop the failed block so that the next read retries it
+      blocks.remove(index);
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      }
+      throw new IOException("Failed to read block " + index + " of " + key, cause);
+    }
+  }
+
+  /**
+   * Cancel all outstanding fetches and release cached blocks.
+   */
+  synchronized void close() {
+    for (Future<byte[]> future : blocks.values()) {
+      future.cancel(false);
+    }
+    blocks.clear();
+  }
+
+  private void prefetchAfter(long index) {
+    for (long i = index + 1; i <= index + prefetchBlocks && i < blockCount; i++) {
+      if (blocks.containsKey(i)) {
+        continue;
+      }
+      try {
+        blocks.put(i, executor.submit(new BlockFetcher(i)));
+      } catch (RejectedExecutionException e) {
+        if (LOG.isDebugEnabled()) {
+          LOG.debug("Read-ahead pool is saturated, skip prefetching block " + i + " of " + key);
+        }
+        break;
+      }
+    }
+  }
+
+  private Future<byte[]> submit(long index) {
+    Future<byte[]> future;
+    try {
+      future = executor.submit(new BlockFetcher(index));
+    } catch (RejectedExecutionException e) {
+      // the block is needed now, fetch it on the caller thread
+      FutureTask<byte[]> task = new FutureTask<byte[]>(new BlockFetcher(index));
+      task.run();
+      future = task;
+    }
+    blocks.put(index, future);
+    return future;
+  }
+
+  /**
+   * Fetch one block with a bounded ranged GET.
+   */
+  class BlockFetcher implements Callable<byte[]> {
+    private final long index;
+
+    BlockFetcher(long index) {
+      this.index = index;
+    }
+
+    @Override
+    public byte[] call() throws IOException {
+      long start = index * blockSize;
+      byte[] block = new byte[(int) Math.min(blockSize, contentLength - start)];
+      try {
+        readBlock(start, block);
+      } catch (SocketTimeoutException | SocketException e) {
+        LOG.info("Got " + e + " while prefetching block " + index + " of " + key + ", trying to recover");
+        readBlock(start, block);
+      }
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Fetched block " + index + " [" + start + ", " + (start + block.length) + ") of " + key);
+      }
+      return block;
+    }
+
+    private void readBlock(long start, byte[] block) throws IOException {
+      GetObjectRequest request = new GetObjectRequest(bucket, key);
+      request.setRange(start, start + block.length - 1);
+      InputStream in;
+      try {
+        in = client.getObject(request).getObjectContent();
+      } catch (OSSException | ClientException e) {
+        throw new IOException("Failed to open block " + index + " of " + key, e);
+      }
+      if (in == null) {
+        throw new IOException("Null IO stream");
+      }
+      try {
+        IOUtils.readFully(in, block, 0, block.length);
+      } finally {
+        in.close();
+      }
+    }
+  }
+}
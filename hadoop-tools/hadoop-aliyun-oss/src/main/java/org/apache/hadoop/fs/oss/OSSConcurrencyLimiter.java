@@ -0,0 +1,104 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.oss;
+
+/**
+ * Bounds the number of write requests in flight to one bucket, adapting the bound to throttling
+ * with additive increase and multiplicative decrease.
+ * <p/>
+ * Every successful request while at least half of the limit is in use grows the limit by
+ * 1 / limit, so a saturated limit grows by about one request per round of requests, and a
+ * throttled request shrinks it to {@link #DECREASE_FACTOR} of its value. Requests which failed
+ * otherwise leave it unchanged. Requests which were already in flight when the limit was
+ * decreased do not decrease it again, so one burst of throttling errors only shrinks the
+ * concurrency once and the limit settles just below the rate the bucket sustains instead of
+ * collapsing to the minimum.
+ * <p/>
+ * One limiter is shared by all clients of a bucket in the JVM.
+ */
+class OSSConcurrencyLimiter {
+  // fraction of the limit kept after throttling
+  private static final double DECREASE_FACTOR = 0.7;
+
+  private final int minLimit;
+  private final int maxLimit;
+  private double limit;
+  private int inFlight;
+  private int waiting;
+  // incremented on every decrease, requests sent before it do not decrease the limit again
+  private long epoch;
+  private long throttled;
+
+  OSSConcurrencyLimiter(int minLimit, int maxLimit) {
+    this.minLimit = Math.max(1, minLimit);
+    this.maxLimit = Math.max(this.minLimit, maxLimit);
+    this.limit = this.maxLimit;
+  }
+
+  /**
+   * Wait until another request may be sent.
+   *
+   * @return the token to pass to {@link #release(long, boolean, boolean)} when the request completes
+   */
+  synchronized long acquire() throws InterruptedException {
+    waiting++;
+    try {
+      while (inFlight >= (int) limit) {
+        wait();
+      }
+    } finally {
+      waiting--;
+    }
+    inFlight++;
+    return epoch;
+  }
+
+  /**
+   * @param token     returned by {@link #acquire()}
+   * @param succeeded whether the request succeeded, only successes grow the limit
+   * @param throttled whether OSS refused the request because of its rate
+   */
+  synchronized void release(long token, boolean succeeded, boolean throttled) {
+    // only grow a limit which is in use, or it would grow without bound while the load is light
+    boolean saturated = waiting > 0 || 2 * inFlight >= limit;
+    inFlight--;
+    if (throttled) {
+      this.throttled++;
+      if (token == epoch) {
+        limit = Math.max(minLimit, limit * DECREASE_FACTOR);
+        epoch++;
+      }
+    } else if (succeeded && saturated) {
+      limit = Math.min(maxLimit, limit + 1 / limit);
+    }
+    notifyAll();
+  }
+
+  synchronized int getLimit() {
+    return (int) limit;
+  }
+
+  synchronized int getInFlight() {
+    return inFlight;
+  }
+
+  synchronized long getThrottled() {
+    return throttled;
+  }
+}
@@ -0,0 +1,436 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.oss;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.LocalDirAllocator;
+import org.slf4j.Logger;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Buffers holding the data of one upload part, used by {@link OSSFastOutputStream}.
+ * <p/>
+ * Three backends are available, chosen by fs.oss.upload.buffer:
+ * <ul>
+ * <li>"disk": each part is written to its own local file allocated from fs.oss.buffer.dir,</li>
+ * <li>"array": on-heap byte arrays,</li>
+ * <li>"bytebuffer": off-heap direct ByteBuffers.</li>
+ * </ul>
+ * Memory buffers are recycled through a pool shared by all streams of the JVM, and every backend
+ * accounts the bytes it currently holds, see {@link #getBufferedBytes()}.
+ */
+final class OSSDataBlocks {
+  public static final Logger LOG = OSSFileSystem.LOG;
+
+  static final String BUFFER_DISK = "disk";
+  static final String BUFFER_ARRAY = "array";
+  static final String BUFFER_BYTEBUFFER = "bytebuffer";
+
+  // bytes held by blocks being written or uploaded, per backend
+  private static final AtomicLong DISK_BYTES = new AtomicLong();
+  private static final AtomicLong ARRAY_BYTES = new AtomicLong();
+  private static final AtomicLong BYTEBUFFER_BYTES = new AtomicLong();
+
+  private OSSDataBlocks() {
+  }
+
+  /**
+   * Create the block factory of the configured buffer backend.
+   *
+   * @param name backend name, one of disk, array and bytebuffer
+   * @param conf configuration, used to allocate local files
+   * @return the block factory
+   */
+  static BlockFactory createFactory(String name, Configuration conf) {
+    int poolSize = conf.getInt(SmartOSSClientConfig.HADOOP_UPLOAD_BUFFER_POOL_SIZE,
+            SmartOSSClientConfig.DEFAULT_UPLOAD_BUFFER_POOL_SIZE);
+    String trimmed = name.trim().toLowerCase(Locale.ENGLISH);
+    if (BUFFER_ARRAY.equals(trimmed)) {
+      return new ArrayBlockFactory(poolSize);
+    } else if (BUFFER_BYTEBUFFER.equals(trimmed)) {
+      return new ByteBufferBlockFactory(poolSize);
+    } else if (BUFFER_DISK.equals(trimmed)) {
+      return new DiskBlockFactory(conf);
+    }
+    throw new IllegalArgumentException("Unsupported value of "
+            + SmartOSSClientConfig.HADOOP_UPLOAD_BUFFER + ": " + name);
+  }
+
+  /**
+   * @return bytes currently held by upload blocks of the given backend in this JVM
+   */
+  static long getBufferedBytes(String name) {
+    if (BUFFER_DISK.equals(name)) {
+      return DISK_BYTES.get();
+    } else if (BUFFER_BYTEBUFFER.equals(name)) {
+      return BYTEBUFFER_BYTES.get();
+    }
+    return ARRAY_BYTES.get();
+  }
+
+  /**
+   * @return bytes of memory currently held by upload blocks in this JVM
+   */
+  static long getBufferedBytes() {
+    return ARRAY_BYTES.get() + BYTEBUFFER_BYTES.get();
+  }
+
+  /**
+   * Creates blocks with a given capacity.
+   */
+  abstract static class BlockFactory {
+    abstract DataBlock create(int capacity) throws IOException;
+  }
+
+  /**
+   * The data of one part. It is written until full, then uploaded once through
+   * {@link #startUpload()} and released by {@link #close()}.
+   */
+  abstract static class DataBlock implements Closeable {
+    private boolean uploading;
+
+    /**
+     * Write up to the remaining capacity of the block.
+     *
+     * @return the number of bytes written
+     */
+    final int write(byte[] b, int off, int len) throws IOException {
+      if (uploading) {
+        throw new IOException("Block is already being uploaded");
+      }
+      int written = Math.min(len, remainingCapacity());
+      if (written > 0) {
+        doWrite(b, off, written);
+      }
+      return written;
+    }
+
+    /**
+     * Stop accepting writes and return a stream over the data of the block.
+     */
+    final InputStream startUpload() throws IOException {
+      uploading = true;
+      return openUploadStream();
+    }
+
+    abstract int dataSize();
+
+    abstract int remainingCapacity();
+
+    abstract void doWrite(byte[] b, int off, int len) throws IOException;
+
+    abstract InputStream openUploadStream() throws IOException;
+  }
+
+  /**
+   * Pool of idle buffers of one size, shared by all streams of the JVM.
+   */
+  static class BufferPool<T> {
+    private final ConcurrentMap<Integer, Queue<T>> idle = new ConcurrentHashMap<Integer, Queue<T>>();
+    private final ConcurrentMap<Integer, AtomicInteger> idleCounts = new ConcurrentHashMap<Integer, AtomicInteger>();
+
+    T poll(int capacity) {
+      Queue<T> queue = idle.get(capacity);
+      if (queue == null) {
+        return null;
+      }
+      T buffer = queue.poll();
+      if (buffer != null) {
+        idleCounts.get(capacity).decrementAndGet();
+      }
+      return buffer;
+    }
+
+    /**
+     * @return false if the pool is full and the buffer should be dropped
+     */
+    boolean offer(int capacity, T buffer, int maxIdle) {
+      AtomicInteger count = idleCounts.get(capacity);
+      if (count == null) {
+        idleCounts.putIfAbsent(capacity, new AtomicInteger());
+        idle.putIfAbsent(capacity, new ConcurrentLinkedQueue<T>());
+        count = idleCounts.get(capacity);
+      }
+      if (count.incrementAndGet() > maxIdle) {
+        count.decrementAndGet();
+        return false;
+      }
+      idle.get(capacity).offer(buffer);
+      return true;
+    }
+  }
+
+  static class ArrayBlockFactory extends BlockFactory {
+    private static final BufferPool<byte[]> POOL = new BufferPool<byte[]>();
+    private final int maxIdle;
+
+    ArrayBlockFactory(int maxIdle) {
+      this.maxIdle = maxIdle;
+    }
+
+    @Override
+    DataBlock create(int capacity) {
+      byte[] buffer = POOL.poll(capacity);
+      if (buffer == null) {
+        buffer = new byte[capacity];
+      }
+      ARRAY_BYTES.addAndGet(capacity);
+      return new ArrayBlock(buffer);
+    }
+
+    class ArrayBlock extends DataBlock {
+      private byte[] buffer;
+      private int size;
+
+      ArrayBlock(byte[] buffer) {
+        this.buffer = buffer;
+      }
+
+      @Override
+      int dataSize() {
+        return size;
+      }
+
+      @Override
+      int remainingCapacity() {
+        return buffer.length - size;
+      }
+
+      @Override
+      void doWrite(byte[] b, int off, int len) {
+        System.arraycopy(b, off, buffer, size, len);
+        size += len;
+      }
+
+      @Override
+      InputStream openUploadStream() {
+        return new ByteArrayInputStream(buffer, 0, size);
+      }
+
+      @Override
+      public void close() {
+        if (buffer != null) {
+          ARRAY_BYTES.addAndGet(-buffer.length);
+          POOL.offer(buffer.length, buffer, maxIdle);
+          buffer = null;
+        }
+      }
+    }
+  }
+
+  static class ByteBufferBlockFactory extends BlockFactory {
+    private static final BufferPool<ByteBuffer> POOL = new BufferPool<ByteBuffer>();
+    private final int maxIdle;
+
+    ByteBufferBlockFactory(int maxIdle) {
+      this.maxIdle = maxIdle;
+    }
+
+    @Override
+    DataBlock create(int capacity) {
+      ByteBuffer buffer = POOL.poll(capacity);
+      if (buffer == null) {
+        buffer = ByteBuffer.allocateDirect(capacity);
+      }
+      buffer.clear();
+      BYTEBUFFER_BYTES.addAndGet(capacity);
+      return new ByteBufferBlock(buffer);
+    }
+
+    class ByteBufferBlock extends DataBlock {
+      private ByteBuffer buffer;
+
+      ByteBufferBlock(ByteBuffer buffer) {
+        this.buffer = buffer;
+      }
+
+      @Override
+      int dataSize() {
+        return buffer.position();
+      }
+
+      @Override
+      int remainingCapacity() {
+        return buffer.remaining();
+      }
+
+      @Override
+      void doWrite(byte[] b, int off, int len) {
+        buffer.put(b, off, len);
+      }
+
+      @Override
+      InputStream openUploadStream() {
+        ByteBuffer data = buffer.duplicate();
+        data.flip();
+        return new ByteBufferInputStream(data);
+      }
+
+      @Override
+      public void close() {
+        if (buffer != null) {
+          BYTEBUFFER_BYTES.addAndGet(-buffer.capacity());
+          POOL.offer(buffer.capacity(), buffer, maxIdle);
+          buffer = null;
+        }
+      }
+    }
+  }
+
+  /**
+   * Reads the remaining bytes of a ByteBuffer, which is not copied.
+   */
+  static class ByteBufferInputStream extends InputStream {
+    private final ByteBuffer buffer;
+
+    ByteBufferInputStream(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public int read() {
+      return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+      if (len == 0) {
+        return 0;
+      }
+      if (!buffer.hasRemaining()) {
+        return -1;
+      }
+      int toRead = Math.min(len, buffer.remaining());
+      buffer.get(b, off, toRead);
+      return toRead;
+    }
+
+    @Override
+    public long skip(long n) {
+      int toSkip = (int) Math.max(0, Math.min(n, buffer.remaining()));
+      buffer.position(buffer.position() + toSkip);
+      return toSkip;
+    }
+
+    @Override
+    public int available() {
+      return buffer.remaining();
+    }
+
+    @Override
+    public boolean markSupported() {
+      return true;
+    }
+
+    @Override
+    public synchronized void mark(int readLimit) {
+      buffer.mark();
+    }
+
+    @Override
+    public synchronized void reset() {
+      buffer.reset();
+    }
+  }
+
+  static class DiskBlockFactory extends BlockFactory {
+    private final Configuration conf;
+    private final LocalDirAllocator lDirAlloc;
+
+    DiskBlockFactory(Configuration conf) {
+      this.conf = conf;
+      this.lDirAlloc = new LocalDirAllocator(SmartOSSClientConfig.BUFFER_DIR);
+    }
+
+    @Override
+    DataBlock create(int capacity) throws IOException {
+      File file = lDirAlloc.createTmpFileForWrite("oss-block-", capacity, conf);
+      return new DiskBlock(file, capacity);
+    }
+
+    static class DiskBlock extends DataBlock {
+      private final File file;
+      private final int capacity;
+      private BufferedOutputStream out;
+      private int size;
+      private boolean closed;
+
+      DiskBlock(File file, int capacity) throws IOException {
+        this.file = file;
+        this.capacity = capacity;
+        this.out = new BufferedOutputStream(new FileOutputStream(file));
+      }
+
+      @Override
+      int dataSize() {
+        return size;
+      }
+
+      @Override
+      int remainingCapacity() {
+        return capacity - size;
+      }
+
+      @Override
+      void doWrite(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        size += len;
+        DISK_BYTES.addAndGet(len);
+      }
+
+      @Override
+      InputStream openUploadStream() throws IOException {
+        out.close();
+        out = null;
+        return new FileInputStream(file);
+      }
+
+      @Override
+      public void close() throws IOException {
+        if (closed) {
+          return;
+        }
+        closed = true;
+        if (out != null) {
+          out.close();
+        }
+        DISK_BYTES.addAndGet(-size);
+        if (!file.delete()) {
+          LOG.warn("Could not delete temporary oss block file: {}", file);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,73 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.oss;
+
+import java.util.Locale;
+
+/**
+ * What happens to the empty directory markers above an object once it is written.
+ */
+public enum OSSDirectoryMarkerPolicy {
+  /**
+   * Probe every ancestor up to the root after each write and delete the markers found,
+   * up to three requests per level.
+   */
+  Delete("delete"),
+  /**
+   * Delete the marker of the parent directory only, without probing it, and only the first time
+   * an object is written into that directory. Markers higher up are left in place.
+   */
+  Parent("parent"),
+  /**
+   * Never delete markers after a write. Markers of directories with children are harmless, their
+   * emptiness is always checked with a listing before they are deleted.
+   */
+  Keep("keep");
+
+  private final String name;
+
+  OSSDirectoryMarkerPolicy(String name) {
+    this.name = name;
+  }
+
+  @Override
+  public String toString() {
+    return name;
+  }
+
+  /**
+   * Choose the policy from its configuration name, unknown names fall back to delete.
+   *
+   * @param name policy name, case insensitive
+   * @return the directory marker policy
+   */
+  public static OSSDirectoryMarkerPolicy getPolicy(String name) {
+    String trimmed = name.trim().toLowerCase(Locale.ENGLISH);
+    if (Parent.name.equals(trimmed)) {
+      return Parent;
+    }
+    if (Keep.name.equals(trimmed)) {
+      return Keep;
+    }
+    if (!Delete.name.equals(trimmed)) {
+      OSSFileSystem.LOG.warn("Unrecognized directory marker policy {}, using {}", name, Delete);
+    }
+    return Delete;
+  }
+}
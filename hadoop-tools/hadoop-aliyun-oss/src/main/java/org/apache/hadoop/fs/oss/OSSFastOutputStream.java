@@ -0,0 +1,488 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.oss;
+
+import com.aliyun.oss.ClientException;
+import com.aliyun.oss.OSSException;
+import com.aliyun.oss.event.ProgressEvent;
+import com.aliyun.oss.event.ProgressListener;
+import com.aliyun.oss.model.AbortMultipartUploadRequest;
+import com.aliyun.oss.model.CompleteMultipartUploadRequest;
+import com.aliyun.oss.model.InitiateMultipartUploadRequest;
+import com.aliyun.oss.model.ObjectMetadata;
+import com.aliyun.oss.model.PartETag;
+import com.aliyun.oss.model.PutObjectRequest;
+import com.aliyun.oss.model.UploadPartRequest;
+import org.apache.hadoop.classification.InterfaceStability;
+import org.apache.hadoop.fs.FileAlreadyExistsException;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.io.IOUtils;
+import org.apache.hadoop.util.Progressable;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Upload to OSS part by part while the file is written, instead of spilling the whole file to
+ * local disk and uploading it when the stream is closed.
+ * <p/>
+ * Data is buffered in part-sized blocks, held on disk, on heap or off heap depending on the
+ * {@link OSSDataBlocks.BlockFactory}. Once more than the multipart upload threshold has been
+ * written, a multipart upload is initiated and every full part is uploaded asynchronously while
+ * the writer keeps producing. The number of parts being uploaded is bounded, a writer which
+ * runs ahead of the uploads blocks until a part finishes, so the memory used by a stream stays
+ * capped. Closing the stream only uploads the last part and completes the upload.
+ * Smaller files are sent with a single PUT on close.
+ * <p/>
+ * Unstable: statistics and error handling might evolve
+ */
+@InterfaceStability.Unstable
+public class OSSFastOutputStream extends OutputStream {
+
+  public static final Logger LOG = OSSFileSystem.LOG;
+
+  private final String key;
+  private final String bucket;
+  private final SmartOSSClient client;
+  private final OSSFileSystem fs;
+  private final FileSystem.Statistics statistics;
+  private final ProgressListener progressListener;
+  private final ExecutorService executorService;
+  private final int partSize;
+  private final long multipartThreshold;
+  // permits for parts being uploaded, bounds the memory used by this stream
+  private final Semaphore uploadPermits;
+  private final OSSDataBlocks.BlockFactory blockFactory;
+  private final boolean forbidOverwrite;
+  // full blocks written before the multipart threshold was reached
+  private final List<OSSDataBlocks.DataBlock> pendingBlocks = new ArrayList<OSSDataBlocks.DataBlock>();
+  private final byte[] singleByte = new byte[1];
+  private MultiPartUpload multiPartUpload;
+  private OSSDataBlocks.DataBlock activeBlock;
+  private long bytesWritten;
+  private boolean closed;
+
+  /**
+   * @param fs                 OSS file system
+   * @param bucket             OSS bucket name
+   * @param key                OSS key name
+   * @param progress           report progress in order to prevent timeouts
+   * @param statistics         track FileSystem.Statistics on the performed operations
+   * @param partSize           size of a single part in a multi-part upload (except last part)
+   * @param multipartThreshold files larger than this use multi-part upload
+   * @param activeParts        the maximum number of parts being uploaded at the same time
+   * @param executorService    executor running part uploads
+   * @param blockFactory       creates the buffers of parts
+   * @param forbidOverwrite    fail on close instead of replacing an existing object
+   */
+  public OSSFastOutputStream(OSSFileSystem fs, String bucket, String key, Progressable progress,
+                             FileSystem.Statistics statistics, long partSize, long multipartThreshold,
+                             int activeParts, ExecutorService executorService,
+                             OSSDataBlocks.BlockFactory blockFactory, boolean forbidOverwrite) {
+    this.fs = fs;
+    this.client = fs.getOSSClient();
+    this.bucket = bucket;
+    this.key = key;
+    this.statistics = statistics;
+    this.progressListener = new ProgressableListener(progress);
+    this.executorService = executorService;
+    this.blockFactory = blockFactory;
+    this.forbidOverwrite = forbidOverwrite;
+    //Ensure limit as a byte array cannot exceed Integer.MAX_VALUE
+    if (partSize > Integer.MAX_VALUE) {
+      this.partSize = Integer.MAX_VALUE;
+      LOG.warn("oss: multipart part size capped to ~2.14GB (maximum allowed size with fast upload)");
+    } else {
+      this.partSize = (int) partSize;
+    }
+    this.multipartThreshold = multipartThreshold;
+    this.uploadPermits = new Semaphore(activeParts);
+    this.closed = false;
+
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Initialized OSSFastOutputStream for bucket '{}' key '{}'", bucket, key);
+    }
+  }
+
+  @Override
+  public synchronized void write(int b) throws IOException {
+    singleByte[0] = (byte) b;
+    write(singleByte, 0, 1);
+  }
+
+  @Override
+  public synchronized void write(byte[] b, int off, int len) throws IOException {
+    checkNotClosed();
+    if (b == null) {
+      throw new NullPointerException();
+    } else if ((off < 0) || (off > b.length) || (len < 0) ||
+            ((off + len) > b.length) || ((off + len) < 0)) {
+      throw new IndexOutOfBoundsException();
+    }
+    while (len > 0) {
+      if (activeBlock == null) {
+        activeBlock = blockFactory.create(partSize);
+      }
+      int written = activeBlock.write(b, off, len);
+      bytesWritten += written;
+      off += written;
+      len -= written;
+      if (activeBlock.remainingCapacity() == 0) {
+        blockFull();
+      }
+    }
+  }
+
+  /**
+   * Called when the current block is full, either keep it until the multipart threshold is
+   * reached or upload it as the next part.
+   */
+  private void blockFull() throws IOException {
+    OSSDataBlocks.DataBlock full = activeBlock;
+    activeBlock = null;
+
+    if (multiPartUpload == null) {
+      pendingBlocks.add(full);
+      if (bytesWritten <= multipartThreshold) {
+        return;
+      }
+      multiPartUpload = initiateMultiPartUpload();
+      while (!pendingBlocks.isEmpty()) {
+        multiPartUpload.uploadPartAsync(pendingBlocks.remove(0));
+      }
+    } else {
+      multiPartUpload.uploadPartAsync(full);
+    }
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      if (multiPartUpload == null) {
+        putObject();
+      } else {
+        if (activeBlock != null && activeBlock.dataSize() > 0) {
+          //send last part
+          OSSDataBlocks.DataBlock last = activeBlock;
+          activeBlock = null;
+          multiPartUpload.uploadPartAsync(last);
+        }
+        List<PartETag> partETags = multiPartUpload.waitForAllPartUploads();
+        multiPartUpload.complete(partETags);
+      }
+      // This will delete unnecessary fake parent directories
+      fs.finishedWrite(key);
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Upload complete for bucket '{}' key '{}'", bucket, key);
+      }
+    } finally {
+      for (OSSDataBlocks.DataBlock block : pendingBlocks) {
+        IOUtils.closeStream(block);
+      }
+      pendingBlocks.clear();
+      IOUtils.closeStream(activeBlock);
+      activeBlock = null;
+      super.close();
+    }
+  }
+
+  private void checkNotClosed() throws IOException {
+    if (closed) {
+      throw new IOException("Stream of " + key + " is already closed");
+    }
+  }
+
+  private MultiPartUpload initiateMultiPartUpload() throws IOException {
+    try {
+      InitiateMultipartUploadRequest request = new InitiateMultipartUploadRequest(bucket, key);
+      if (forbidOverwrite) {
+        SmartOSSClient.forbidOverwrite(request);
+      }
+      String uploadId = client.initiateMultipartUpload(request).getUploadId();
+      return new MultiPartUpload(uploadId);
+    } catch (OSSException e) {
+      if (SmartOSSClient.isFileAlreadyExists(e)) {
+        throw new FileAlreadyExistsException(key + " already exists");
+      }
+      throw new IOException("Unable to initiate multi-part upload of " + key + ": " + e, e);
+    } catch (ClientException e) {
+      throw new IOException("Unable to initiate multi-part upload of " + key + ": " + e, e);
+    }
+  }
+
+  private void putObject() throws IOException {
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Executing regular upload for bucket '{}' key '{}'", bucket, key);
+    }
+    List<InputStream> streams = new ArrayList<InputStream>();
+    for (OSSDataBlocks.DataBlock pending : pendingBlocks) {
+      streams.add(pending.startUpload());
+    }
+    if (activeBlock != null) {
+      streams.add(activeBlock.startUpload());
+    }
+
+    final ObjectMetadata om = new ObjectMetadata();
+    om.setContentLength(bytesWritten);
+    PutObjectRequest putObjectRequest = new PutObjectRequest(bucket, key,
+            new SequenceInputStream(Collections.enumeration(streams)), om);
+    putObjectRequest.setProgressListener(progressListener);
+    if (forbidOverwrite) {
+      SmartOSSClient.forbidOverwrite(putObjectRequest);
+    }
+    try {
+      client.putObject(putObjectRequest);
+      statistics.incrementWriteOps(1);
+    } catch (OSSException e) {
+      if (SmartOSSClient.isFileAlreadyExists(e)) {
+        throw new FileAlreadyExistsException(key + " already exists");
+      }
+      throw new IOException("Regular upload of " + key + " failed: " + e, e);
+    } catch (ClientException e) {
+      throw new IOException("Regular upload of " + key + " failed: " + e, e);
+    } finally {
+      for (InputStream stream : streams) {
+        IOUtils.closeStream(stream);
+      }
+    }
+  }
+
+  private class MultiPartUpload {
+    private final String uploadId;
+    private final List<Future<PartETag>> partETagsFutures;
+    // the task of each future, to release the blocks of parts cancelled before they started
+    private final List<PartUpload> partUploads;
+
+    public MultiPartUpload(String uploadId) {
+      this.uploadId = uploadId;
+      this.partETagsFutures = new ArrayList<Future<PartETag>>();
+      this.partUploads = new ArrayList<PartUpload>();
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Initiated multi-part upload for bucket '{}' key '{}' with id '{}'",
+                bucket, key, uploadId);
+      }
+    }
+
+    /**
+     * Submit a part upload, blocking while the maximum number of parts are already in flight.
+     */
+    public void uploadPartAsync(final OSSDataBlocks.DataBlock block) throws IOException {
+      try {
+        uploadPermits.acquire();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        IOUtils.closeStream(block);
+        abort();
+        throw new InterruptedIOException("Interrupted while waiting to upload a part of " + key);
+      }
+      try {
+        failIfAnyPartFailed();
+      } catch (IOException e) {
+        IOUtils.closeStream(block);
+        throw e;
+      }
+
+      final int currentPartNumber = partETagsFutures.size() + 1;
+      final UploadPartRequest request = new UploadPartRequest();
+      request.setBucketName(bucket);
+      request.setKey(key);
+      request.setUploadId(uploadId);
+      // the part is uploaded straight from the block, memory or a file of exactly one part
+      final InputStream partStream = block.startUpload();
+      request.setInputStream(partStream);
+      request.setPartSize(block.dataSize());
+      request.setPartNumber(currentPartNumber);
+      request.setProgressListener(progressListener);
+      PartUpload partUpload = new PartUpload(request, block, partStream);
+      try {
+        partETagsFutures.add(executorService.submit(partUpload));
+        partUploads.add(partUpload);
+      } catch (RuntimeException e) {
+        partUpload.release();
+        abort();
+        throw new IOException("Unable to submit part " + currentPartNumber + " of " + key, e);
+      }
+    }
+
+    /**
+     * Fail fast instead of buffering more data for an upload that can not complete.
+     */
+    private void failIfAnyPartFailed() throws IOException {
+      for (Future<PartETag> future : partETagsFutures) {
+        if (future.isDone()) {
+          try {
+            future.get();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            uploadPermits.release();
+            cancelAndAbort();
+            throw new InterruptedIOException("Interrupted multi-part upload with id '" + uploadId + "'");
+          } catch (ExecutionException e) {
+            uploadPermits.release();
+            cancelAndAbort();
+            throw new IOException("Part upload failed in multi-part upload with id '" +
+                    uploadId + "':" + e, e.getCause());
+          }
+        }
+      }
+    }
+
+    public List<PartETag> waitForAllPartUploads() throws IOException {
+      List<PartETag> partETags = new ArrayList<PartETag>(partETagsFutures.size());
+      try {
+        for (Future<PartETag> future : partETagsFutures) {
+          partETags.add(future.get());
+        }
+      } catch (InterruptedException ie) {
+        Thread.currentThread().interrupt();
+        cancelAndAbort();
+        throw new InterruptedIOException("Interrupted multi-part upload with id '" + uploadId + "'");
+      } catch (ExecutionException ee) {
+        //there is no way of recovering so abort
+        cancelAndAbort();
+        throw new IOException("Part upload failed in multi-part upload with id '" +
+                uploadId + "':" + ee, ee.getCause());
+      }
+      return partETags;
+    }
+
+    public void complete(List<PartETag> partETags) throws IOException {
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Completing multi-part upload for key '{}', id '{}'", key, uploadId);
+      }
+      CompleteMultipartUploadRequest request = new CompleteMultipartUploadRequest(bucket, key, uploadId, partETags);
+      if (forbidOverwrite) {
+        SmartOSSClient.forbidOverwrite(request);
+      }
+      try {
+        client.completeMultipartUpload(request);
+        statistics.incrementWriteOps(1);
+      } catch (OSSException e) {
+        abort();
+        if (SmartOSSClient.isFileAlreadyExists(e)) {
+          throw new FileAlreadyExistsException(key + " already exists");
+        }
+        throw new IOException("Unable to complete multi-part upload with id '" + uploadId + "'", e);
+      } catch (ClientException e) {
+        abort();
+        throw new IOException("Unable to complete multi-part upload with id '" + uploadId + "'", e);
+      }
+    }
+
+    private void cancelAndAbort() {
+      for (int i = 0; i < partETagsFutures.size(); i++) {
+        partETagsFutures.get(i).cancel(true);
+        // a part which never started is not released by its task
+        if (partUploads.get(i).claim()) {
+          partUploads.get(i).release();
+        }
+      }
+      abort();
+    }
+
+    public void abort() {
+      LOG.warn("Aborting multi-part upload with id '{}'", uploadId);
+      try {
+        client.abortMultipartUpload(new AbortMultipartUploadRequest(bucket, key, uploadId));
+      } catch (Exception e2) {
+        LOG.warn("Unable to abort multipart upload, you may need to purge uploaded parts: " + e2, e2);
+      }
+    }
+  }
+
+  /**
+   * Upload of one part, which closes its block and releases its permit once done.
+   */
+  private class PartUpload implements Callable<PartETag> {
+    private final UploadPartRequest request;
+    private final OSSDataBlocks.DataBlock block;
+    private final InputStream partStream;
+    // set by whichever of the task and the cancellation of the upload comes first
+    private final AtomicBoolean claimed = new AtomicBoolean();
+
+    PartUpload(UploadPartRequest request, OSSDataBlocks.DataBlock block, InputStream partStream) {
+      this.request = request;
+      this.block = block;
+      this.partStream = partStream;
+    }
+
+    /**
+     * @return true if the caller owns the block, which must then be released by it
+     */
+    boolean claim() {
+      return claimed.compareAndSet(false, true);
+    }
+
+    void release() {
+      IOUtils.closeStream(partStream);
+      IOUtils.closeStream(block);
+      uploadPermits.release();
+    }
+
+    @Override
+    public PartETag call() throws Exception {
+      if (!claim()) {
+        // cancelled, the block was released by the cancellation
+        throw new CancellationException();
+      }
+      try {
+        if (LOG.isDebugEnabled()) {
+          LOG.debug("Uploading part {} for id '{}'", request.getPartNumber(), request.getUploadId());
+        }
+        PartETag partETag = client.uploadPart(request).getPartETag();
+        statistics.incrementWriteOps(1);
+        return partETag;
+      } finally {
+        release();
+      }
+    }
+  }
+
+  private static class ProgressableListener implements ProgressListener {
+    private final Progressable progress;
+
+    public ProgressableListener(Progressable progress) {
+      this.progress = progress;
+    }
+
+    public void progressChanged(ProgressEvent progressEvent) {
+      if (progress != null) {
+        progress.progress();
+      }
+    }
+  }
+}
@@ -0,0 +1,120 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.oss;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * One range of a vectored read, see {@link OSSInputStream#readVectored(java.util.List)}.
+ * <p/>
+ * The bytes of the object in [offset, offset + length) are copied into the buffer at the
+ * buffer offset, and the future completes as soon as this range is filled, independently of
+ * the other ranges of the same read.
+ */
+public class OSSFileRange {
+  private final long offset;
+  private final int length;
+  private final byte[] buffer;
+  private final int bufferOffset;
+  private final Result result = new Result();
+
+  public OSSFileRange(long offset, int length, byte[] buffer, int bufferOffset) {
+    if (offset < 0 || length < 0 || bufferOffset < 0 || bufferOffset + length > buffer.length) {
+      throw new IllegalArgumentException("Invalid range of " + length + " bytes at " + offset
+              + " into buffer of " + buffer.length + " bytes at " + bufferOffset);
+    }
+    this.offset = offset;
+    this.length = length;
+    this.buffer = buffer;
+    this.bufferOffset = bufferOffset;
+  }
+
+  public OSSFileRange(long offset, int length) {
+    this(offset, length, new byte[length], 0);
+  }
+
+  public long getOffset() {
+    return offset;
+  }
+
+  public int getLength() {
+    return length;
+  }
+
+  public byte[] getBuffer() {
+    return buffer;
+  }
+
+  public int getBufferOffset() {
+    return bufferOffset;
+  }
+
+  long getEnd() {
+    return offset + length;
+  }
+
+  /**
+   * @return the future of the read, which yields the number of bytes read or fails with the
+   * cause of the failed GET
+   */
+  public Future<Integer> getFuture() {
+    return result;
+  }
+
+  void complete() {
+    result.set(length);
+  }
+
+  void fail(Throwable cause) {
+    result.setException(cause);
+  }
+
+  @Override
+  public String toString() {
+    return "[" + offset + ", " + getEnd() + ")";
+  }
+
+  /**
+   * A future completed by the reader of the merged range rather than by running a task.
+   */
+  private static final class Result extends FutureTask<Integer> {
+    private static final Callable<Integer> NOTHING = new Callable<Integer>() {
+      @Override
+      public Integer call() {
+        throw new IllegalStateException("Vectored read results are set by the reader");
+      }
+    };
+
+    Result() {
+      super(NOTHING);
+    }
+
+    @Override
+    protected void set(Integer bytes) {
+      super.set(bytes);
+    }
+
+    @Override
+    protected void setException(Throwable cause) {
+      super.setException(cause);
+    }
+  }
+}
@@ -27,6 +27,8 @@ import org.apache.hadoop.fs.Path;
  */
 public class OSSFileStatus extends FileStatus {
   private boolean isEmptyDirectory;
+  // ETag of the object, null for directories or if unknown
+  private String eTag;
 
   // Directories
   public OSSFileStatus(boolean isdir, boolean isEmptyDir, Path path) {
@@ -36,14 +38,36 @@ public class OSSFileStatus extends FileStatus {
 
   // Files
   public OSSFileStatus(long length, long modificationTime, Path path, long blockSize) {
+    this(length, modificationTime, path, blockSize, null);
+  }
+
+  public OSSFileStatus(long length, long modificationTime, Path path, long blockSize, String eTag) {
     super(length, false, 1, blockSize, modificationTime, path);
     isEmptyDirectory = false;
+    this.eTag = eTag;
+  }
+
+  // Copies, whose path and other fields can be changed without affecting the original
+  OSSFileStatus(OSSFileStatus other) {
+    super(other.getLen(), other.isDirectory(), other.getReplication(), other.getBlockSize(),
+            other.getModificationTime(), other.getAccessTime(), other.getPermission(), other.getOwner(),
+            other.getGroup(), other.getPath());
+    isEmptyDirectory = other.isEmptyDirectory;
+    eTag = other.eTag;
   }
 
   public boolean isEmptyDirectory() {
     return isEmptyDirectory;
   }
 
+  /**
+   * @return the ETag of the object, which changes whenever the object is replaced, or null if
+   * unknown
+   */
+  public String getETag() {
+    return eTag;
+  }
+
   @Override
   public String toString() {
     return String.format("[EmptyDir]%b %s", isEmptyDirectory, super.toString());
@@ -21,12 +21,9 @@ package org.apache.hadoop.fs.oss;
 
 
 import com.aliyun.oss.ClientException;
-import com.aliyun.oss.OSSClient;
 import com.aliyun.oss.OSSErrorCode;
 import com.aliyun.oss.OSSException;
 import com.aliyun.oss.common.comm.Protocol;
-import com.aliyun.oss.event.ProgressEvent;
-import com.aliyun.oss.event.ProgressListener;
 import com.aliyun.oss.model.CopyObjectRequest;
 import com.aliyun.oss.model.DeleteObjectsRequest;
 import com.aliyun.oss.model.ListObjectsRequest;
@@ -37,26 +34,56 @@ import com.aliyun.oss.model.PutObjectRequest;
 import org.apache.hadoop.classification.InterfaceAudience;
 import org.apache.hadoop.classification.InterfaceStability;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.ContentSummary;
+import org.apache.hadoop.fs.CreateFlag;
 import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.FileAlreadyExistsException;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.GlobPattern;
 import org.apache.hadoop.fs.LocalFileSystem;
+import org.apache.hadoop.fs.LocatedFileStatus;
+import org.apache.hadoop.fs.ParentNotDirectoryException;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.PathFilter;
+import org.apache.hadoop.fs.RemoteIterator;
 import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.util.Progressable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.net.URI;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import static org.apache.hadoop.fs.oss.SmartOSSClientConfig.*;
 
@@ -71,10 +98,67 @@ public class OSSFileSystem extends FileSystem {
   private URI uri;
   private Path workingDir;
   private String bucket;
-  private OSSClient client;
+  private SmartOSSClient client;
+  private OSSInputPolicy inputPolicy;
+  private long readAheadRange;
+  // parallel read-ahead of input streams, null if disabled
+  private ExecutorService readAheadExecutor;
+  private int readAheadBlockSize;
+  private int readAheadBlockCount;
+  private int readAheadCacheBlocks;
+  private int vectoredReadMinSeek;
+  private int vectoredReadMaxMergedSize;
+  // hedged GETs of input streams, null if disabled
+  private ExecutorService hedgedReadExecutor;
+  private OSSHedgedGets hedgedGets;
+  private final OSSHedgedReadMetrics hedgedReadMetrics = new OSSHedgedReadMetrics();
+  private OSSInstrumentation instrumentation;
+  // blocks of objects kept on local disks, null if disabled
+  private OSSBlockCache blockCache;
+  // tails of objects kept in memory for all file systems of the JVM, null if disabled
+  private OSSTailCache tailCache;
+  private ExecutorService tailCacheExecutor;
+  private int tailCacheTailSize;
+  // upload from memory buffers while writing, instead of spilling to a local file
+  private boolean fastUpload;
+  private int fastUploadActiveParts;
+  private OSSDataBlocks.BlockFactory blockFactory;
+  // copies and deletes of directory operations
+  private ExecutorService bulkExecutor;
+  // file statuses, null if disabled
+  private OSSMetadataCache metadataCache;
+  private OSSStatusProbe statusProbe;
+  // share the HEADs and probe listings in flight between threads asking for the same key,
+  // null if coalescing is disabled
+  private OSSSingleFlight<String, ObjectMetadata> heads;
+  private OSSSingleFlight<String, ObjectListing> probeListings;
+  private boolean parallelContentSummary;
+  // key ranges listed at once, 1 to list page after page
+  private int listingShards;
+  private int listingSamples;
+  // keys a glob may list at once, 0 to expand globs directory by directory
+  private int globMaxKeys;
+  private OSSDirectoryMarkerPolicy markerPolicy;
+  // let OSS refuse to overwrite files created without overwrite, instead of probing first
+  private boolean serverSideNoOverwrite;
+  private boolean parallelDownload;
+  private long parallelDownloadThreshold;
+  private long parallelDownloadPartSize;
+  // directories whose marker was deleted by the parent policy, or which never had one
+  private Set<String> unmarkedDirectories;
 
   public static final Logger LOG = LoggerFactory.getLogger(OSSFileSystem.class);
 
+  // directories remembered by the parent marker policy
+  private static final int MAX_UNMARKED_DIRECTORIES = 10000;
+
+  private static final PathFilter ACCEPT_ALL = new PathFilter() {
+    @Override
+    public boolean accept(Path file) {
+      return true;
+    }
+  };
+
   /**
    * Called after a new FileSystem instance is constructed.
    *
@@ -142,6 +226,16 @@ public class OSSFileSystem extends FileSystem {
     ossConf.setCorePoolSize(conf.getInt(HADOOP_CORE_POOL_SIZE, DEFAULT_CORE_POOL_SIZE));
     ossConf.setMaxPoolSize((conf.getInt(HADOOP_MAX_POOL_SIZE, DEFAULT_MAX_POOL_SIZE)));
     ossConf.setKeepAliveTime(conf.getInt(HADOOP_KEEP_ALIVE_TIME, DEFAULT_KEEP_ALIVE_TIME));
+    ossConf.setMaxQueuedTasks(conf.getInt(HADOOP_MAX_QUEUED_TASKS, DEFAULT_MAX_QUEUED_TASKS));
+    ossConf.setBucketMaxActive(conf.getInt(HADOOP_BUCKET_MAX_ACTIVE, DEFAULT_BUCKET_MAX_ACTIVE));
+    ossConf.setOperationMaxActive(conf.getInt(HADOOP_OPERATION_MAX_ACTIVE, DEFAULT_OPERATION_MAX_ACTIVE));
+    //extra configuration for throttling
+    ossConf.setLimiterEnabled(conf.getBoolean(HADOOP_LIMITER_ENABLED, DEFAULT_LIMITER_ENABLED));
+    ossConf.setLimiterMinRequests(conf.getInt(HADOOP_LIMITER_MIN_REQUESTS, DEFAULT_LIMITER_MIN_REQUESTS));
+    ossConf.setLimiterMaxRequests(conf.getInt(HADOOP_LIMITER_MAX_REQUESTS, DEFAULT_LIMITER_MAX_REQUESTS));
+    ossConf.setThrottleRetries(conf.getInt(HADOOP_THROTTLE_RETRIES, DEFAULT_THROTTLE_RETRIES));
+    ossConf.setThrottleBaseBackoff(conf.getLong(HADOOP_THROTTLE_BASE_BACKOFF, DEFAULT_THROTTLE_BASE_BACKOFF));
+    ossConf.setThrottleMaxBackoff(conf.getLong(HADOOP_THROTTLE_MAX_BACKOFF, DEFAULT_THROTTLE_MAX_BACKOFF));
 
     if (LOG.isDebugEnabled()) {
       LOG.debug("Using proxy server {}:{} as user {} with password {} on " +
@@ -151,10 +245,97 @@ public class OSSFileSystem extends FileSystem {
               ossConf.getProxyWorkstation());
     }
 
-    client = new SmartOSSClient(endpoint, accessKeyId, accessKeySecret, ossConf);
+    client = new SmartOSSClient(endpoint, accessKeyId, accessKeySecret, ossConf, bucket);
     if (!client.doesBucketExist(bucket)) {
+      client.shutdown();
+      client = null;
       throw new IOException("Bucket " + bucket + " does not exist");
     }
+    instrumentation = new OSSInstrumentation(uri, hedgedReadMetrics, client.getConcurrencyLimiter());
+    client.setInstrumentation(instrumentation);
+
+    fastUpload = conf.getBoolean(HADOOP_FAST_UPLOAD, DEFAULT_FAST_UPLOAD);
+    fastUploadActiveParts = conf.getInt(HADOOP_FAST_UPLOAD_ACTIVE_PARTS, DEFAULT_FAST_UPLOAD_ACTIVE_PARTS);
+    if (fastUpload) {
+      blockFactory = OSSDataBlocks.createFactory(conf.getTrimmed(HADOOP_UPLOAD_BUFFER, DEFAULT_UPLOAD_BUFFER), conf);
+    }
+    int bulkThreads = conf.getInt(HADOOP_BULK_THREADS, DEFAULT_BULK_THREADS);
+    bulkExecutor = new BlockingThreadPoolExecutorService(bulkThreads, bulkThreads,
+            conf.getInt(HADOOP_KEEP_ALIVE_TIME, DEFAULT_KEEP_ALIVE_TIME), TimeUnit.SECONDS, "oss-bulk");
+    if (conf.getBoolean(HADOOP_METADATA_CACHE_ENABLED, DEFAULT_METADATA_CACHE_ENABLED)) {
+      metadataCache = new OSSMetadataCache(
+              conf.getInt(HADOOP_METADATA_CACHE_MAX_ENTRIES, DEFAULT_METADATA_CACHE_MAX_ENTRIES),
+              conf.getLong(HADOOP_METADATA_CACHE_TTL, DEFAULT_METADATA_CACHE_TTL));
+    }
+    parallelContentSummary = conf.getBoolean(HADOOP_CONTENT_SUMMARY_PARALLEL, DEFAULT_CONTENT_SUMMARY_PARALLEL);
+    listingShards = conf.getInt(HADOOP_LISTING_SHARDS, DEFAULT_LISTING_SHARDS);
+    listingSamples = conf.getInt(HADOOP_LISTING_SAMPLES, DEFAULT_LISTING_SAMPLES);
+    globMaxKeys = conf.getInt(HADOOP_GLOB_MAX_KEYS, DEFAULT_GLOB_MAX_KEYS);
+    parallelDownload = conf.getBoolean(HADOOP_DOWNLOAD_PARALLEL_ENABLED, DEFAULT_DOWNLOAD_PARALLEL_ENABLED);
+    parallelDownloadThreshold = conf.getLong(HADOOP_DOWNLOAD_PARALLEL_THRESHOLD, DEFAULT_DOWNLOAD_PARALLEL_THRESHOLD);
+    parallelDownloadPartSize = conf.getLong(HADOOP_DOWNLOAD_PART_SIZE, DEFAULT_DOWNLOAD_PART_SIZE);
+    serverSideNoOverwrite = conf.getBoolean(HADOOP_CREATE_FORBID_OVERWRITE, DEFAULT_CREATE_FORBID_OVERWRITE);
+    markerPolicy = OSSDirectoryMarkerPolicy.getPolicy(
+            conf.getTrimmed(HADOOP_DIRECTORY_MARKER_POLICY, DEFAULT_DIRECTORY_MARKER_POLICY));
+    unmarkedDirectories = Collections.synchronizedSet(Collections.newSetFromMap(
+            new LinkedHashMap<String, Boolean>() {
+              @Override
+              protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                return size() > MAX_UNMARKED_DIRECTORIES;
+              }
+            }));
+    if (conf.getBoolean(HADOOP_METADATA_COALESCING_ENABLED, DEFAULT_METADATA_COALESCING_ENABLED)) {
+      heads = new OSSSingleFlight<String, ObjectMetadata>();
+      probeListings = new OSSSingleFlight<String, ObjectListing>();
+    }
+    statusProbe = OSSStatusProbe.getProbe(conf.getTrimmed(HADOOP_STATUS_PROBE, DEFAULT_STATUS_PROBE));
+    inputPolicy = OSSInputPolicy.getPolicy(conf.getTrimmed(HADOOP_INPUT_POLICY, DEFAULT_INPUT_POLICY));
+    readAheadRange = conf.getLong(HADOOP_READAHEAD_RANGE, DEFAULT_READAHEAD_RANGE);
+    if (conf.getBoolean(HADOOP_READAHEAD_PARALLEL_ENABLED, DEFAULT_READAHEAD_PARALLEL_ENABLED)) {
+      readAheadBlockSize = conf.getInt(HADOOP_READAHEAD_BLOCK_SIZE, DEFAULT_READAHEAD_BLOCK_SIZE);
+      readAheadBlockCount = conf.getInt(HADOOP_READAHEAD_BLOCK_COUNT, DEFAULT_READAHEAD_BLOCK_COUNT);
+      readAheadCacheBlocks = conf.getInt(HADOOP_READAHEAD_CACHE_BLOCKS, DEFAULT_READAHEAD_CACHE_BLOCKS);
+      int readAheadThreads = conf.getInt(HADOOP_READAHEAD_THREADS, DEFAULT_READAHEAD_THREADS);
+      ThreadPoolExecutor executor = new ThreadPoolExecutor(readAheadThreads, readAheadThreads,
+              conf.getInt(HADOOP_KEEP_ALIVE_TIME, DEFAULT_KEEP_ALIVE_TIME), TimeUnit.SECONDS,
+              new LinkedBlockingQueue<Runnable>(conf.getInt(HADOOP_READAHEAD_MAX_QUEUED, DEFAULT_READAHEAD_MAX_QUEUED)));
+      executor.allowCoreThreadTimeOut(true);
+      readAheadExecutor = executor;
+    }
+    vectoredReadMinSeek = conf.getInt(HADOOP_VECTORED_READ_MIN_SEEK, DEFAULT_VECTORED_READ_MIN_SEEK);
+    vectoredReadMaxMergedSize = conf.getInt(HADOOP_VECTORED_READ_MAX_MERGED_SIZE,
+            DEFAULT_VECTORED_READ_MAX_MERGED_SIZE);
+    if (conf.getBoolean(HADOOP_HEDGED_READ_ENABLED, DEFAULT_HEDGED_READ_ENABLED)) {
+      int hedgedReadThreads = conf.getInt(HADOOP_HEDGED_READ_THREADS, DEFAULT_HEDGED_READ_THREADS);
+      // no queue, a GET which finds all threads busy is sent by the caller without hedging
+      ThreadPoolExecutor executor = new ThreadPoolExecutor(hedgedReadThreads, hedgedReadThreads,
+              conf.getInt(HADOOP_KEEP_ALIVE_TIME, DEFAULT_KEEP_ALIVE_TIME), TimeUnit.SECONDS,
+              new SynchronousQueue<Runnable>());
+      executor.allowCoreThreadTimeOut(true);
+      hedgedReadExecutor = executor;
+      hedgedGets = new OSSHedgedGets(client, executor,
+              conf.getLong(HADOOP_HEDGED_READ_DELAY, DEFAULT_HEDGED_READ_DELAY),
+              conf.getLong(HADOOP_HEDGED_READ_MIN_DELAY, DEFAULT_HEDGED_READ_MIN_DELAY),
+              conf.getFloat(HADOOP_HEDGED_READ_PERCENTILE, DEFAULT_HEDGED_READ_PERCENTILE),
+              conf.getFloat(HADOOP_HEDGED_READ_BUDGET, DEFAULT_HEDGED_READ_BUDGET),
+              hedgedReadMetrics);
+    }
+    if (conf.getBoolean(HADOOP_BLOCK_CACHE_ENABLED, DEFAULT_BLOCK_CACHE_ENABLED)) {
+      blockCache = new OSSBlockCache(client, conf,
+              conf.getInt(HADOOP_BLOCK_CACHE_BLOCK_SIZE, DEFAULT_BLOCK_CACHE_BLOCK_SIZE),
+              conf.getLong(HADOOP_BLOCK_CACHE_MAX_SIZE, DEFAULT_BLOCK_CACHE_MAX_SIZE));
+    }
+    if (conf.getBoolean(HADOOP_TAIL_CACHE_ENABLED, DEFAULT_TAIL_CACHE_ENABLED)) {
+      tailCache = OSSTailCache.getInstance(conf.getLong(HADOOP_TAIL_CACHE_MAX_SIZE, DEFAULT_TAIL_CACHE_MAX_SIZE));
+      tailCacheTailSize = conf.getInt(HADOOP_TAIL_CACHE_TAIL_SIZE, DEFAULT_TAIL_CACHE_TAIL_SIZE);
+      int tailCacheThreads = conf.getInt(HADOOP_TAIL_CACHE_THREADS, DEFAULT_TAIL_CACHE_THREADS);
+      // no queue, a tail which finds all threads busy is fetched by its first reader
+      ThreadPoolExecutor executor = new ThreadPoolExecutor(tailCacheThreads, tailCacheThreads,
+              conf.getInt(HADOOP_KEEP_ALIVE_TIME, DEFAULT_KEEP_ALIVE_TIME), TimeUnit.SECONDS,
+              new SynchronousQueue<Runnable>());
+      executor.allowCoreThreadTimeOut(true);
+      tailCacheExecutor = executor;
+    }
     setConf(conf);
 
   }
@@ -180,7 +361,7 @@ public class OSSFileSystem extends FileSystem {
    *
    * @return
    */
-  OSSClient getOSSClient() {
+  SmartOSSClient getOSSClient() {
     return client;
   }
 
@@ -220,13 +401,60 @@ public class OSSFileSystem extends FileSystem {
     if (LOG.isDebugEnabled()) {
       LOG.debug("Opening '{}' for reading.", f);
     }
-    final FileStatus fileStatus = getFileStatus(f);
-    if (fileStatus.isDirectory()) {
-      throw new FileNotFoundException("Can't open " + f + " because it is a directory");
+    final OSSFileStatus fileStatus = getFileStatusOfFile(f);
+
+    OSSInputStream in;
+    if (blockCache != null && fileStatus.getETag() != null) {
+      // blocks are named after the ETag, an object without one cannot be cached
+      in = new OSSInputStream(bucket, pathToKey(f),
+              fileStatus.getLen(), client, statistics);
+      in.setBlockCache(blockCache, fileStatus.getETag());
+    } else if (readAheadExecutor != null) {
+      in = new OSSInputStream(bucket, pathToKey(f),
+              fileStatus.getLen(), client, statistics, readAheadExecutor,
+              readAheadBlockSize, readAheadBlockCount, readAheadCacheBlocks);
+    } else {
+      in = new OSSInputStream(bucket, pathToKey(f),
+              fileStatus.getLen(), client, statistics, inputPolicy, readAheadRange);
+      if (hedgedGets != null) {
+        in.setHedgedGets(hedgedGets);
+      }
+    }
+    if (tailCache != null && fileStatus.getETag() != null && fileStatus.getLen() > 0) {
+      in.setTail(tailCache.getTail(client, tailCacheExecutor, bucket, pathToKey(f),
+              fileStatus.getETag(), fileStatus.getLen(), tailCacheTailSize));
     }
+    in.setVectoredRead(bulkExecutor, vectoredReadMinSeek, vectoredReadMaxMergedSize);
+    in.setInstrumentation(instrumentation);
+    return new FSDataInputStream(in);
+  }
+
+  /**
+   * @return the metrics of this file system, also published to the metrics system
+   */
+  public OSSInstrumentation getInstrumentation() {
+    return instrumentation;
+  }
+
+  /**
+   * @return the local block cache, null if it is disabled
+   */
+  OSSBlockCache getBlockCache() {
+    return blockCache;
+  }
+
+  /**
+   * @return the tail cache shared by the file systems of the JVM, null if this one does not use it
+   */
+  OSSTailCache getTailCache() {
+    return tailCache;
+  }
 
-    return new FSDataInputStream(new OSSInputStream(bucket, pathToKey(f),
-            fileStatus.getLen(), client, statistics));
+  /**
+   * @return the counters of hedged GETs, which stay zero unless hedged reads are enabled
+   */
+  public OSSHedgedReadMetrics getHedgedReadMetrics() {
+    return hedgedReadMetrics;
   }
 
   /**
@@ -248,12 +476,40 @@ public class OSSFileSystem extends FileSystem {
                                    int bufferSize, short replication, long blockSize, Progressable progress) throws IOException {
     String key = pathToKey(f);
 
-    if (!overwrite && exists(f)) {
+    // with server side checks, an existing file fails the upload when the stream is closed, but
+    // the header cannot see a directory, which is still probed here
+    boolean forbidOverwrite = !overwrite && serverSideNoOverwrite;
+    if (!overwrite && !serverSideNoOverwrite && exists(f)) {
       throw new FileAlreadyExistsException(f + " already exists");
     }
+    if (forbidOverwrite && isDirectoryKey(key)) {
+      throw new FileAlreadyExistsException(f + " is a directory");
+    }
+    if (fastUpload) {
+      SmartOSSClientConfig ossConf = client.getConfiguration();
+      return new FSDataOutputStream(new OSSFastOutputStream(this, bucket, key, progress, statistics,
+              ossConf.getMinimumUploadPartSize(), ossConf.getMultipartUploadThreshold(),
+              fastUploadActiveParts, client.getThreadPoolExecutor(), blockFactory, forbidOverwrite), statistics);
+    }
     // We pass null to FSDataOutputStream so it won't count writes that are being buffered to a file
     return new FSDataOutputStream(new OSSOutputStream(getConf(), this,
-            bucket, key, progress, statistics), null);
+            bucket, key, progress, statistics, forbidOverwrite), null);
+  }
+
+  /**
+   * Create a file whose parent directory must exist. {@link #create} itself never checks or
+   * creates parents, so this only adds one status probe of the parent, usually cached.
+   */
+  @Override
+  public FSDataOutputStream createNonRecursive(Path f, FsPermission permission, EnumSet<CreateFlag> flags,
+                                               int bufferSize, short replication, long blockSize,
+                                               Progressable progress) throws IOException {
+    Path parent = f.getParent();
+    if (parent != null && !pathToKey(parent).isEmpty() && !getFileStatus(parent).isDirectory()) {
+      throw new ParentNotDirectoryException(parent + " is not a directory");
+    }
+    return create(f, permission, flags.contains(CreateFlag.OVERWRITE), bufferSize, replication,
+            blockSize, progress);
   }
 
   /**
@@ -330,7 +586,7 @@ public class OSSFileSystem extends FileSystem {
         return false;
       }
 
-      if (dstStatus.isDirectory() && !dstStatus.isEmptyDirectory()) {
+      if (dstStatus.isDirectory() && !isEmptyDirectory(dstStatus, dstKey)) {
         return false;
       }
     } catch (FileNotFoundException e) {
@@ -349,6 +605,31 @@ public class OSSFileSystem extends FileSystem {
     }
 
     // Ok! Time to start
+    try {
+      if (!renameObjects(src, dst, srcKey, dstKey, srcStatus, dstStatus)) {
+        return false;
+      }
+    } finally {
+      invalidateCacheTree(pathToKey(src));
+      invalidateCacheTree(pathToKey(dst));
+      // markers under the source were copied along
+      forgetUnmarkedDirectories(pathToKey(dst));
+    }
+
+    if (src.getParent() != dst.getParent()) {
+      removeParentMarkers(dst.getParent());
+      createEmptyDirectoryIfNecessary(src.getParent());
+    }
+    return true;
+  }
+
+  /**
+   * Copy the objects of a checked rename and delete the sources.
+   *
+   * @return false if the rename is not allowed
+   */
+  private boolean renameObjects(Path src, Path dst, String srcKey, String dstKey,
+                                OSSFileStatus srcStatus, OSSFileStatus dstStatus) throws IOException {
     if (srcStatus.isFile()) {
       if (LOG.isDebugEnabled()) {
         LOG.debug("rename: renaming file " + src + " to " + dst);
@@ -395,47 +676,7 @@ public class OSSFileSystem extends FileSystem {
         keysToDelete.add(dstKey);
       }
 
-      ListObjectsRequest request = new ListObjectsRequest();
-      request.setBucketName(bucket);
-      request.setPrefix(srcKey);
-      request.setMaxKeys(MAX_RETURNED_KEYS_LIMIT);
-
-      ObjectListing objects = client.listObjects(request);
-      statistics.incrementReadOps(1);
-
-      String nextMarker;
-      while (true) {
-        for (OSSObjectSummary summary : objects.getObjectSummaries()) {
-          keysToDelete.add(summary.getKey());
-          String newDstKey = dstKey + summary.getKey().substring(srcKey.length());
-          copyFile(summary.getKey(), newDstKey);
-
-          if (keysToDelete.size() == DELETE_OBJECTS_ONETIME_LIMIT) {
-            DeleteObjectsRequest deleteRequest = new DeleteObjectsRequest(bucket).withKeys(keysToDelete);
-            client.deleteObjects(deleteRequest);
-            statistics.incrementWriteOps(1);
-            keysToDelete.clear();
-          }
-        }
-
-        if (objects.isTruncated()) {
-          nextMarker = objects.getNextMarker();
-          objects = client.listObjects(request.withMarker(nextMarker));
-          statistics.incrementReadOps(1);
-        } else {
-          if (keysToDelete.size() > 0) {
-            DeleteObjectsRequest deleteRequest = new DeleteObjectsRequest(bucket).withKeys(keysToDelete);
-            client.deleteObjects(deleteRequest);
-            statistics.incrementWriteOps(1);
-          }
-          break;
-        }
-      }
-    }
-
-    if (src.getParent() != dst.getParent()) {
-      deleteUnnecessaryEmptyDirectories(dst.getParent());
-      createEmptyDirectoryIfNecessary(src.getParent());
+      new DirectoryRename(srcKey, dstKey).run(keysToDelete);
     }
     return true;
   }
@@ -466,13 +707,32 @@ public class OSSFileSystem extends FileSystem {
     }
 
     String key = pathToKey(f);
+    try {
+      if (!deleteObjects(f, key, status, recursive)) {
+        return false;
+      }
+    } finally {
+      invalidateCacheTree(pathToKey(f));
+    }
 
+    createEmptyDirectoryIfNecessary(f.getParent());
+
+    return true;
+  }
+
+  /**
+   * Delete the objects of a path whose status is known.
+   *
+   * @return false if the path can not be deleted
+   */
+  private boolean deleteObjects(Path f, String key, OSSFileStatus status, boolean recursive) throws IOException {
     if (status.isDirectory()) {
       if (LOG.isDebugEnabled()) {
         LOG.debug("delete: Path is a directory");
       }
 
-      if (!recursive && !status.isEmptyDirectory()) {
+      boolean empty = isEmptyDirectory(status, key);
+      if (!recursive && !empty) {
         throw new IOException("Path is a folder: " + f + " and it is not an empty directory");
       }
 
@@ -485,7 +745,7 @@ public class OSSFileSystem extends FileSystem {
         return false;
       }
 
-      if (status.isEmptyDirectory()) {
+      if (empty) {
         if (LOG.isDebugEnabled()) {
           LOG.debug("Deleting empty directory");
         }
@@ -496,46 +756,7 @@ public class OSSFileSystem extends FileSystem {
           LOG.debug("Getting objects for directory prefix " + key + " to delete");
         }
 
-        ListObjectsRequest request = new ListObjectsRequest();
-        request.setBucketName(bucket);
-        request.setPrefix(key);
-        // Hopefully not setting a delimiter will cause this to find everything
-        //request.setDelimiter("/");
-        request.setMaxKeys(MAX_RETURNED_KEYS_LIMIT);
-
-        List<String> keys = new ArrayList<String>();
-        ObjectListing objects = client.listObjects(request);
-        statistics.incrementReadOps(1);
-
-        String nextMarker;
-        while (true) {
-          for (OSSObjectSummary summary : objects.getObjectSummaries()) {
-            keys.add(summary.getKey());
-            if (LOG.isDebugEnabled()) {
-              LOG.debug("Got object to delete " + summary.getKey());
-            }
-
-            if (keys.size() == DELETE_OBJECTS_ONETIME_LIMIT) {
-              DeleteObjectsRequest deleteRequest = new DeleteObjectsRequest(bucket).withKeys(keys);
-              client.deleteObjects(deleteRequest);
-              statistics.incrementWriteOps(1);
-              keys.clear();
-            }
-          }
-
-          if (objects.isTruncated()) {
-            nextMarker = objects.getNextMarker();
-            objects = client.listObjects(request.withMarker(nextMarker));
-            statistics.incrementReadOps(1);
-          } else {
-            if (!keys.isEmpty()) {
-              DeleteObjectsRequest deleteRequest = new DeleteObjectsRequest(bucket).withKeys(keys);
-              client.deleteObjects(deleteRequest);
-              statistics.incrementWriteOps(1);
-            }
-            break;
-          }
-        }
+        deleteAllUnder(key);
       }
     } else {
       if (LOG.isDebugEnabled()) {
@@ -544,15 +765,132 @@ public class OSSFileSystem extends FileSystem {
       client.deleteObject(bucket, key);
       statistics.incrementWriteOps(1);
     }
+    return true;
+  }
 
-    createEmptyDirectoryIfNecessary(f.getParent());
+  /**
+   * Delete every object under a prefix. The next page is listed while the current batch is being
+   * deleted, and several DeleteObjects batches run at once on the bulk pool, which blocks the
+   * listing when too many batches are in flight.
+   *
+   * @param prefix the prefix of the directory, ending with "/"
+   */
+  private void deleteAllUnder(String prefix) throws IOException {
+    List<Future<Integer>> batches = new ArrayList<Future<Integer>>();
+    List<String> keys = new ArrayList<String>();
+    long deleted = 0;
+    try {
+      ObjectListing objects = client.listObjects(
+              new ListObjectsRequest(bucket, prefix, null, null, MAX_RETURNED_KEYS_LIMIT));
+      statistics.incrementReadOps(1);
+      while (true) {
+        Future<ObjectListing> nextPage = null;
+        if (objects.isTruncated()) {
+          nextPage = listObjectsAsync(
+                  new ListObjectsRequest(bucket, prefix, objects.getNextMarker(), null, MAX_RETURNED_KEYS_LIMIT));
+        }
+        for (OSSObjectSummary summary : objects.getObjectSummaries()) {
+          keys.add(summary.getKey());
+          if (keys.size() == DELETE_OBJECTS_ONETIME_LIMIT) {
+            batches.add(deleteObjectsAsync(keys));
+            keys = new ArrayList<String>();
+          }
+        }
+        if (nextPage == null) {
+          break;
+        }
+        deleted += collectCompleted(batches);
+        objects = nextPage.get();
+      }
+      if (!keys.isEmpty()) {
+        batches.add(deleteObjectsAsync(keys));
+      }
+      for (Future<Integer> batch : batches) {
+        deleted += batch.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      cancelAll(batches);
+      throw new InterruptedIOException("Interrupted while deleting " + prefix + " after deleting " + deleted + " keys");
+    } catch (ExecutionException e) {
+      cancelAll(batches);
+      throw new IOException("Failed to delete " + prefix + " after deleting " + deleted + " keys", e.getCause());
+    } catch (OSSException | ClientException e) {
+      cancelAll(batches);
+      throw new IOException("Failed to delete " + prefix + " after deleting " + deleted + " keys", e);
+    }
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Deleted {} keys under {}", deleted, prefix);
+    }
+  }
 
-    return true;
+  private Future<ObjectListing> listObjectsAsync(final ListObjectsRequest request) throws IOException {
+    try {
+      return bulkExecutor.submit(new Callable<ObjectListing>() {
+        @Override
+        public ObjectListing call() {
+          ObjectListing objects = client.listObjects(request);
+          statistics.incrementReadOps(1);
+          return objects;
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      throw (InterruptedIOException) new InterruptedIOException("Could not list " + request.getPrefix()).initCause(e);
+    }
+  }
+
+  /**
+   * Delete a batch of at most 1000 keys on the bulk pool, in quiet mode so that OSS does not
+   * echo every deleted key back.
+   *
+   * @return the number of keys of the batch
+   */
+  private Future<Integer> deleteObjectsAsync(final List<String> keys) throws IOException {
+    try {
+      return bulkExecutor.submit(new Callable<Integer>() {
+        @Override
+        public Integer call() {
+          client.deleteObjects(new DeleteObjectsRequest(bucket).withKeys(keys).withQuiet(true));
+          statistics.incrementWriteOps(1);
+          return keys.size();
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      throw (InterruptedIOException) new InterruptedIOException("Could not delete " + keys.size() + " keys").initCause(e);
+    }
+  }
+
+  /**
+   * Remove the completed batches, failing fast if one of them failed.
+   *
+   * @return the number of keys deleted by the completed batches
+   */
+  private static long collectCompleted(List<Future<Integer>> batches)
+          throws InterruptedException, ExecutionException {
+    long deleted = 0;
+    for (Iterator<Future<Integer>> it = batches.iterator(); it.hasNext(); ) {
+      Future<Integer> batch = it.next();
+      if (batch.isDone()) {
+        deleted += batch.get();
+        it.remove();
+      }
+    }
+    return deleted;
   }
 
+  private static void cancelAll(List<? extends Future<?>> futures) {
+    for (Future<?> future : futures) {
+      future.cancel(false);
+    }
+  }
+
+  /**
+   * Keep the parent of a deleted or renamed path alive. Only the delete policy removes markers
+   * from directories with children, so the others write the marker without probing first.
+   */
   private void createEmptyDirectoryIfNecessary(Path f) throws IOException {
     String key = pathToKey(f);
-    if (!key.isEmpty() && !exists(f)) {
+    if (!key.isEmpty() && (markerPolicy != OSSDirectoryMarkerPolicy.Delete || !exists(f))) {
       if (LOG.isDebugEnabled()) {
         LOG.debug("Creating new empty directory at " + f);
       }
@@ -586,66 +924,51 @@ public class OSSFileSystem extends FileSystem {
         key = key + "/";
       }
 
-      ListObjectsRequest request = new ListObjectsRequest();
-      request.setBucketName(bucket);
-      request.setPrefix(key);
-      request.setDelimiter("/");
-      request.setMaxKeys(MAX_RETURNED_KEYS_LIMIT);
-
       if (LOG.isDebugEnabled()) {
         LOG.debug("listStatus: doing listObjects for directory " + key);
       }
 
-      ObjectListing objects = client.listObjects(request);
-      statistics.incrementReadOps(1);
+      RemoteIterator<ObjectListing> pages = listPages(key, "/", true);
+      try {
+        while (pages.hasNext()) {
+          ObjectListing objects = pages.next();
+          for (OSSObjectSummary summary : objects.getObjectSummaries()) {
+            Path keyPath = keyToPath(summary.getKey()).makeQualified(uri, workingDir);
+            if (keyPath.equals(f)) {
+              if (LOG.isDebugEnabled()) {
+                LOG.debug("Ignoring: " + keyPath);
+              }
+              continue;
+            }
 
-      String nextMarker;
-      while (true) {
-        for (OSSObjectSummary summary : objects.getObjectSummaries()) {
-          Path keyPath = keyToPath(summary.getKey()).makeQualified(uri, workingDir);
-          if (keyPath.equals(f)) {
-            if (LOG.isDebugEnabled()) {
-              LOG.debug("Ignoring: " + keyPath);
+            if (objectRepresentsDirectory(summary.getKey(), summary.getSize())) {
+              result.add(cacheStatus(new OSSFileStatus(true, true, keyPath)));
+              if (LOG.isDebugEnabled()) {
+                LOG.debug("Adding: fd: " + keyPath);
+              }
+            } else {
+              result.add(cacheStatus(new OSSFileStatus(summary.getSize(),
+                      dateToLong(summary.getLastModified()), keyPath,
+                      getDefaultBlockSize(f.makeQualified(uri, workingDir)), summary.getETag())));
+              if (LOG.isDebugEnabled()) {
+                LOG.debug("Adding: fi: " + keyPath);
+              }
             }
-            continue;
           }
 
-          if (objectRepresentsDirectory(summary.getKey(), summary.getSize())) {
-            result.add(new OSSFileStatus(true, true, keyPath));
-            if (LOG.isDebugEnabled()) {
-              LOG.debug("Adding: fd: " + keyPath);
+          for (String prefix : objects.getCommonPrefixes()) {
+            Path keyPath = keyToPath(prefix).makeQualified(uri, workingDir);
+            if (keyPath.equals(f)) {
+              continue;
             }
-          } else {
-            result.add(new OSSFileStatus(summary.getSize(),
-                    dateToLong(summary.getLastModified()), keyPath,
-                    getDefaultBlockSize(f.makeQualified(uri, workingDir))));
+            result.add(cacheStatus(new OSSFileStatus(true, false, keyPath)));
             if (LOG.isDebugEnabled()) {
-              LOG.debug("Adding: fi: " + keyPath);
+              LOG.debug("Adding: rd: " + keyPath);
             }
           }
         }
-
-        for (String prefix : objects.getCommonPrefixes()) {
-          Path keyPath = keyToPath(prefix).makeQualified(uri, workingDir);
-          if (keyPath.equals(f)) {
-            continue;
-          }
-          result.add(new OSSFileStatus(true, false, keyPath));
-          if (LOG.isDebugEnabled()) {
-            LOG.debug("Adding: rd: " + keyPath);
-          }
-        }
-
-        if (objects.isTruncated()) {
-          if (LOG.isDebugEnabled()) {
-            LOG.debug("listStatus: list truncated - getting next batch");
-          }
-          nextMarker = objects.getNextMarker();
-          objects = client.listObjects(request.withMarker(nextMarker));
-          statistics.incrementReadOps(1);
-        } else {
-          break;
-        }
+      } finally {
+        closePages(pages);
       }
     } else {
       if (LOG.isDebugEnabled()) {
@@ -657,129 +980,642 @@ public class OSSFileSystem extends FileSystem {
     return result.toArray(new FileStatus[result.size()]);
   }
 
-  /**
-   * Set the current working directory for the given file system. All relative
-   * paths will be resolved relative to it.
-   *
-   * @param newDir
-   */
-  public void setWorkingDirectory(Path newDir) {
-    workingDir = newDir;
+  @Override
+  public FileStatus[] globStatus(Path pathPattern) throws IOException {
+    return globStatus(pathPattern, ACCEPT_ALL);
   }
 
   /**
-   * Get the current working directory for the given file system
-   *
-   * @return the directory pathname
+   * Expand a glob with one flat listing of its longest literal prefix, matching the keys against
+   * the pattern locally, instead of listing every directory matched by a wildcard. The generic
+   * expansion is used when it needs no more than one listing, when the pattern starts with a
+   * wildcard, or when the prefix holds more keys than allowed.
    */
-  public Path getWorkingDirectory() {
-    return workingDir;
+  @Override
+  public FileStatus[] globStatus(Path pathPattern, PathFilter filter) throws IOException {
+    FileStatus[] statuses = globByPrefix(pathPattern, filter);
+    return statuses != null ? statuses : super.globStatus(pathPattern, filter);
   }
 
   /**
-   * Make the given file and all non-existent parents into
-   * directories. Has the semantics of Unix 'mkdir -p'.
-   * Existence of the directory hierarchy is not an error.
-   *
-   * @param f          path to create
-   * @param permission to apply to f
+   * @return the matching statuses in path order, or null if the pattern must be expanded
+   * directory by directory
    */
-  // TODO: If we have created an empty file at /foo/bar and we then call
-  // mkdirs for /foo/bar/baz/roo what happens to the empty file /foo/bar/?
-  @Override
-  public boolean mkdirs(Path f, FsPermission permission) throws IOException {
-    if (LOG.isDebugEnabled()) {
-      LOG.debug("Making directory: " + f);
+  private FileStatus[] globByPrefix(Path pathPattern, PathFilter filter) throws IOException {
+    URI patternUri = pathPattern.toUri();
+    if (globMaxKeys <= 0
+            || (patternUri.getScheme() != null && !patternUri.getScheme().equals(uri.getScheme()))
+            || (patternUri.getAuthority() != null && !patternUri.getAuthority().equals(uri.getAuthority()))) {
+      return null;
     }
-    try {
-      FileStatus fileStatus = getFileStatus(f);
-
-      if (fileStatus.isDirectory()) {
-        return true;
-      } else {
-        throw new FileAlreadyExistsException("Path is a file: " + f);
+    String pattern = pathToKey(pathPattern);
+    // escapes and groups spanning directories are left to the generic expansion
+    int groups = 0;
+    for (char c : pattern.toCharArray()) {
+      if (c == '\\' || (c == '/' && groups > 0)) {
+        return null;
       }
-    } catch (FileNotFoundException e) {
+      groups += c == '{' ? 1 : c == '}' ? -1 : 0;
+    }
 
-      Path fPart = f;
-      do {
-        try {
-          FileStatus fileStatus = getFileStatus(fPart);
-          if (fileStatus.isFile()) {
-            throw new FileAlreadyExistsException(String.format(
-                    "Can't make directory for path '%s' since it is a file.",
-                    fPart));
-          }
-        } catch (FileNotFoundException fnfe) {
+    String[] components = pattern.split("/");
+    GlobPattern[] globs = new GlobPattern[components.length];
+    int literal = -1;
+    try {
+      for (int i = 0; i < components.length; i++) {
+        globs[i] = new GlobPattern(components[i]);
+        if (literal < 0 && globs[i].hasWildcard()) {
+          literal = i;
         }
-        fPart = fPart.getParent();
-      } while (fPart != null);
-
-      String key = pathToKey(f);
-      createEmptyDirectory(bucket, key);
-      return true;
+      }
+    } catch (IllegalArgumentException e) {
+      return null;
+    }
+    if (literal < 1 || literal == components.length - 1) {
+      return null;
+    }
+    StringBuilder prefix = new StringBuilder();
+    for (int i = 0; i < literal; i++) {
+      prefix.append(components[i]).append('/');
+    }
+    for (char c : components[literal].toCharArray()) {
+      if ("*?[{".indexOf(c) >= 0) {
+        break;
+      }
+      prefix.append(c);
     }
-  }
-
-  /**
-   * Return a file status object that represents the path.
-   *
-   * @param f The path we want information from
-   * @return a FileStatus object
-   * @throws java.io.FileNotFoundException when the path does not exist;
-   *                                       IOException see specific implementation
-   */
-  public OSSFileStatus getFileStatus(Path f) throws IOException {
-    String key = pathToKey(f);
     if (LOG.isDebugEnabled()) {
-      LOG.debug("Getting path status for " + f + " (" + key + ")");
+      LOG.debug("Expanding glob " + pathPattern + " by listing " + prefix);
     }
 
-    //try to get object firstly
-    if (!key.isEmpty()) {
+    TreeMap<String, OSSFileStatus> matches = new TreeMap<String, OSSFileStatus>();
+    long listedKeys = 0;
+    RemoteIterator<ObjectListing> pages = listPages(prefix.toString(), null, false);
+    try {
+      while (pages.hasNext()) {
+        ObjectListing page = pages.next();
+        listedKeys += page.getObjectSummaries().size();
+        if (listedKeys > globMaxKeys) {
+          if (LOG.isDebugEnabled()) {
+            LOG.debug("More than " + globMaxKeys + " keys under " + prefix + ", expanding " + pathPattern
+                    + " directory by directory");
+          }
+          return null;
+        }
+        for (OSSObjectSummary summary : page.getObjectSummaries()) {
+          String[] parts = summary.getKey().split("/");
+          if (parts.length < components.length) {
+            continue;
+          }
+          boolean matched = true;
+          for (int i = literal; i < components.length && matched; i++) {
+            matched = globs[i].matches(parts[i]);
+          }
+          if (!matched) {
+            continue;
+          }
+          StringBuilder matchedKey = new StringBuilder(parts[0]);
+          for (int i = 1; i < components.length; i++) {
+            matchedKey.append('/').append(parts[i]);
+          }
+          Path keyPath = keyToPath(matchedKey.toString()).makeQualified(uri, workingDir);
+          if (parts.length > components.length) {
+            // an object under the matched directory
+            matches.put(matchedKey.toString(), new OSSFileStatus(true, false, keyPath));
+          } else if (objectRepresentsDirectory(summary.getKey(), summary.getSize())) {
+            if (!matches.containsKey(matchedKey.toString())) {
+              matches.put(matchedKey.toString(), new OSSFileStatus(true, true, keyPath));
+            }
+          } else {
+            matches.put(matchedKey.toString(), new OSSFileStatus(summary.getSize(),
+                    dateToLong(summary.getLastModified()), keyPath, getDefaultBlockSize(keyPath), summary.getETag()));
+          }
+        }
+      }
+    } finally {
+      closePages(pages);
+    }
+
+    List<FileStatus> result = new ArrayList<FileStatus>(matches.size());
+    for (OSSFileStatus status : matches.values()) {
+      cacheStatus(status);
+      if (filter.accept(status.getPath())) {
+        result.add(status);
+      }
+    }
+    return result.toArray(new FileStatus[result.size()]);
+  }
+
+  /**
+   * List the files under a directory. A recursive listing is a single flat LIST of the prefix
+   * instead of one listing per directory, its next page is fetched while the caller consumes the
+   * current one.
+   *
+   * @param f         a file or a directory
+   * @param recursive whether to list the files of the subdirectories too
+   * @return an iterator over the files, in key order unless the listing is sharded
+   * @throws FileNotFoundException when the path does not exist
+   */
+  @Override
+  public RemoteIterator<LocatedFileStatus> listFiles(Path f, boolean recursive)
+          throws FileNotFoundException, IOException {
+    FileStatus status = getFileStatus(f);
+    if (status.isFile()) {
+      return singletonIterator(new LocatedFileStatus(status, getFileBlockLocations(status, 0, status.getLen())));
+    }
+    return new LocatedStatusIterator(f, recursive, true, null);
+  }
+
+  /**
+   * List a directory page by page, the next page being fetched while the caller consumes the
+   * current one.
+   */
+  @Override
+  protected RemoteIterator<LocatedFileStatus> listLocatedStatus(Path f, PathFilter filter)
+          throws FileNotFoundException, IOException {
+    FileStatus status = getFileStatus(f);
+    if (status.isFile()) {
+      if (!filter.accept(status.getPath())) {
+        return singletonIterator(null);
+      }
+      return singletonIterator(new LocatedFileStatus(status, getFileBlockLocations(status, 0, status.getLen())));
+    }
+    return new LocatedStatusIterator(f, false, false, filter);
+  }
+
+  /**
+   * Compute the summary of a directory from a flat listing of its prefix instead of listing every
+   * directory, directories are inferred from the keys. With parallel content summaries, each
+   * subdirectory is listed on its own thread of the bulk pool.
+   */
+  @Override
+  public ContentSummary getContentSummary(Path f) throws IOException {
+    FileStatus status = getFileStatus(f);
+    if (status.isFile()) {
+      return new ContentSummary.Builder().length(status.getLen()).
+              fileCount(1).directoryCount(0).spaceConsumed(status.getLen()).build();
+    }
+    String key = pathToKey(f);
+    final String dirKey = key.isEmpty() ? key : key + "/";
+    PrefixSummary summary = new PrefixSummary(dirKey);
+    if (!parallelContentSummary) {
+      summary.addAll(listPages(dirKey, null, true));
+    } else {
+      List<Future<PrefixSummary>> children = new ArrayList<Future<PrefixSummary>>();
       try {
-        ObjectMetadata fileMetadata = client.getObjectMetadata(bucket, key);
-        statistics.incrementReadOps(1);
+        OSSListingIterator pages = new OSSListingIterator(client, bulkExecutor, statistics, bucket, dirKey, "/", null);
+        while (pages.hasNext()) {
+          ObjectListing page = pages.next();
+          for (OSSObjectSummary object : page.getObjectSummaries()) {
+            summary.add(object);
+          }
+          for (final String prefix : page.getCommonPrefixes()) {
+            children.add(bulkExecutor.submit(new Callable<PrefixSummary>() {
+              @Override
+              public PrefixSummary call() throws IOException {
+                // no prefetch, the pool is busy with the other subdirectories
+                PrefixSummary child = new PrefixSummary(dirKey);
+                child.addAll(new OSSListingIterator(client, null, statistics, bucket, prefix, null, null));
+                return child;
+              }
+            }));
+          }
+        }
+        for (Future<PrefixSummary> child : children) {
+          summary.merge(child.get());
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        cancelAll(children);
+        throw new InterruptedIOException("Interrupted while summarizing " + f);
+      } catch (ExecutionException e) {
+        cancelAll(children);
+        throw new IOException("Failed to summarize " + f, e.getCause());
+      } catch (RejectedExecutionException e) {
+        cancelAll(children);
+        throw (InterruptedIOException) new InterruptedIOException("Could not summarize " + f).initCause(e);
+      }
+    }
+    return new ContentSummary.Builder().length(summary.length).fileCount(summary.files).
+            directoryCount(summary.directories + 1).spaceConsumed(summary.length).build();
+  }
 
-        if (LOG.isDebugEnabled()) {
-          LOG.debug("Found exact file: normal file");
+  /**
+   * List a prefix page by page, fetching the next page in the background, or as several key ranges
+   * at once when sharded listing is enabled.
+   *
+   * @param delimiter "/" to list one directory level, null to list everything under the prefix
+   * @param sorted    whether the pages of a sharded listing must be returned in key order
+   */
+  private RemoteIterator<ObjectListing> listPages(String prefix, String delimiter, boolean sorted)
+          throws IOException {
+    if (listingShards > 1) {
+      return new OSSShardedListing(client, bulkExecutor, statistics, bucket, prefix, delimiter,
+              listingShards, listingSamples).list(sorted);
+    }
+    return new OSSListingIterator(client, bulkExecutor, statistics, bucket, prefix, delimiter, null);
+  }
+
+  /**
+   * Stop a listing which may still be listing ranges in the background.
+   */
+  private static void closePages(RemoteIterator<ObjectListing> pages) {
+    if (pages instanceof Closeable) {
+      IOUtils.closeStream((Closeable) pages);
+    }
+  }
+
+  /**
+   * Length, files and directories under a prefix, computed from its keys in lexicographic order.
+   * The keys under a directory are contiguous, so a directory is new when it is not a prefix of
+   * the previous key, and no set of directories has to be kept.
+   */
+  private class PrefixSummary {
+    private final int baseLength;
+    private String lastKey;
+    private long length;
+    private long files;
+    private long directories;
+
+    /**
+     * @param dirKey the summarized directory, ending with "/", it and its parents are not counted
+     */
+    PrefixSummary(String dirKey) {
+      this.lastKey = dirKey;
+      this.baseLength = dirKey.length();
+    }
+
+    void addAll(RemoteIterator<ObjectListing> pages) throws IOException {
+      try {
+        while (pages.hasNext()) {
+          for (OSSObjectSummary object : pages.next().getObjectSummaries()) {
+            add(object);
+          }
         }
-        return new OSSFileStatus(fileMetadata.getContentLength(),
-                dateToLong(fileMetadata.getLastModified()),
-                f.makeQualified(uri, workingDir),
-                getDefaultBlockSize(f.makeQualified(uri, workingDir)));
-      } catch (OSSException e) {
-        if (!e.getErrorCode().equals(OSSErrorCode.NO_SUCH_KEY)) {
+      } finally {
+        closePages(pages);
+      }
+    }
+
+    void add(OSSObjectSummary object) {
+      String key = object.getKey();
+      int common = 0;
+      int max = Math.min(key.length(), lastKey.length());
+      while (common < max && key.charAt(common) == lastKey.charAt(common)) {
+        common++;
+      }
+      for (int i = key.indexOf('/', Math.max(common, baseLength)); i >= 0; i = key.indexOf('/', i + 1)) {
+        directories++;
+      }
+      if (!objectRepresentsDirectory(key, object.getSize())) {
+        files++;
+        length += object.getSize();
+      }
+      lastKey = key;
+    }
+
+    void merge(PrefixSummary other) {
+      length += other.length;
+      files += other.files;
+      directories += other.directories;
+    }
+  }
+
+  /**
+   * @param status the only element, or null for an empty iterator
+   */
+  private static RemoteIterator<LocatedFileStatus> singletonIterator(final LocatedFileStatus status) {
+    return new RemoteIterator<LocatedFileStatus>() {
+      private LocatedFileStatus next = status;
+
+      @Override
+      public boolean hasNext() {
+        return next != null;
+      }
+
+      @Override
+      public LocatedFileStatus next() {
+        if (next == null) {
+          throw new NoSuchElementException();
+        }
+        LocatedFileStatus result = next;
+        next = null;
+        return result;
+      }
+    };
+  }
+
+  /**
+   * Set the current working directory for the given file system. All relative
+   * paths will be resolved relative to it.
+   *
+   * @param newDir
+   */
+  public void setWorkingDirectory(Path newDir) {
+    workingDir = newDir;
+  }
+
+  /**
+   * Get the current working directory for the given file system
+   *
+   * @return the directory pathname
+   */
+  public Path getWorkingDirectory() {
+    return workingDir;
+  }
+
+  /**
+   * Make the given file and all non-existent parents into
+   * directories. Has the semantics of Unix 'mkdir -p'.
+   * Existence of the directory hierarchy is not an error.
+   *
+   * @param f          path to create
+   * @param permission to apply to f
+   */
+  // TODO: If we have created an empty file at /foo/bar and we then call
+  // mkdirs for /foo/bar/baz/roo what happens to the empty file /foo/bar/?
+  @Override
+  public boolean mkdirs(Path f, FsPermission permission) throws IOException {
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Making directory: " + f);
+    }
+    try {
+      FileStatus fileStatus = getFileStatus(f);
+
+      if (fileStatus.isDirectory()) {
+        return true;
+      } else {
+        throw new FileAlreadyExistsException("Path is a file: " + f);
+      }
+    } catch (FileNotFoundException e) {
+
+      Path fPart = f;
+      do {
+        try {
+          FileStatus fileStatus = getFileStatus(fPart);
+          if (fileStatus.isFile()) {
+            throw new FileAlreadyExistsException(String.format(
+                    "Can't make directory for path '%s' since it is a file.",
+                    fPart));
+          }
+        } catch (FileNotFoundException fnfe) {
+        }
+        fPart = fPart.getParent();
+      } while (fPart != null);
+
+      String key = pathToKey(f);
+      createEmptyDirectory(bucket, key);
+      return true;
+    }
+  }
+
+  /**
+   * Return a file status object that represents the path.
+   *
+   * @param f The path we want information from
+   * @return a FileStatus object
+   * @throws java.io.FileNotFoundException when the path does not exist;
+   *                                       IOException see specific implementation
+   */
+  public OSSFileStatus getFileStatus(Path f) throws IOException {
+    String key = pathToKey(f);
+    if (metadataCache == null || key.isEmpty()) {
+      return probeFileStatus(f, key);
+    }
+    OSSMetadataCache.CachedStatus entry = metadataCache.get(key);
+    if (entry != null) {
+      OSSFileStatus cached = entry.getStatus();
+      if (cached == null) {
+        throw new FileNotFoundException("No such file or directory: " + f);
+      }
+      return cached;
+    }
+    try {
+      OSSFileStatus status = probeFileStatus(f, key);
+      metadataCache.put(key, status);
+      return status;
+    } catch (FileNotFoundException e) {
+      metadataCache.putNotFound(key);
+      throw e;
+    }
+  }
+
+  /**
+   * Get the status of a path which must be a file, like a file being opened. Only the object
+   * itself is probed, the directory probes are skipped.
+   *
+   * @throws FileNotFoundException if there is no such file, or the path is a directory
+   */
+  private OSSFileStatus getFileStatusOfFile(Path f) throws IOException {
+    String key = pathToKey(f);
+    OSSMetadataCache.CachedStatus entry = metadataCache == null || key.isEmpty() ? null : metadataCache.get(key);
+    OSSFileStatus status = entry == null ? null : entry.getStatus();
+    if (entry == null && !key.isEmpty()) {
+      ObjectMetadata meta = headObject(key);
+      if (meta != null) {
+        Path qualified = f.makeQualified(uri, workingDir);
+        status = cacheStatus(new OSSFileStatus(meta.getContentLength(),
+                dateToLong(meta.getLastModified()), qualified, getDefaultBlockSize(qualified), meta.getETag()));
+      }
+    }
+    if (status == null) {
+      throw new FileNotFoundException("No such file: " + f);
+    }
+    if (status.isDirectory()) {
+      throw new FileNotFoundException("Can't open " + f + " because it is a directory");
+    }
+    return status;
+  }
+
+  /**
+   * Get the status of a path from OSS with the configured probe.
+   */
+  private OSSFileStatus probeFileStatus(Path f, String key) throws IOException {
+    if (key.isEmpty() || statusProbe == OSSStatusProbe.Sequential) {
+      return probeSequentially(f, key);
+    }
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Probing path status for " + f + " (" + key + ") with " + statusProbe + " probe");
+    }
+    Path qualified = f.makeQualified(uri, workingDir);
+    OSSFileStatus status;
+    if (statusProbe == OSSStatusProbe.List) {
+      ObjectListing objects = listForProbe(key, 2);
+      status = statusFromListing(qualified, key, objects);
+      if (status == null && objects.isTruncated()) {
+        // siblings sorting before the directory, like key.tmp or key-1, filled the page
+        status = statusFromListing(qualified, key, listForProbe(key + "/", 1));
+      }
+    } else {
+      status = probeConcurrently(qualified, key);
+    }
+    if (status == null) {
+      throw new FileNotFoundException("No such file or directory: " + f);
+    }
+    return status;
+  }
+
+  /**
+   * HEAD the key on the caller thread while the directory is listed on the bulk pool.
+   */
+  private OSSFileStatus probeConcurrently(Path qualified, final String key) throws IOException {
+    Future<ObjectListing> listing;
+    try {
+      listing = bulkExecutor.submit(new Callable<ObjectListing>() {
+        @Override
+        public ObjectListing call() throws IOException {
+          return listForProbe(key + "/", 1);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      throw (InterruptedIOException) new InterruptedIOException("Could not probe " + key).initCause(e);
+    }
+    try {
+      ObjectMetadata meta = headObject(key);
+      if (meta != null) {
+        listing.cancel(true);
+        return new OSSFileStatus(meta.getContentLength(), dateToLong(meta.getLastModified()),
+                qualified, getDefaultBlockSize(qualified), meta.getETag());
+      }
+      return statusFromListing(qualified, key, listing.get());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while probing " + key);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new IOException("Failed to probe " + key, e.getCause());
+    } finally {
+      listing.cancel(true);
+    }
+  }
+
+  private ObjectListing listForProbe(String prefix, int maxKeys) throws IOException {
+    return listForProbe(prefix, null, maxKeys);
+  }
+
+  /**
+   * List the first keys of a prefix, sharing the listing with concurrent identical probes.
+   */
+  private ObjectListing listForProbe(final String prefix, final String delimiter, final int maxKeys)
+          throws IOException {
+    OSSSingleFlight.Loader<ObjectListing> list = new OSSSingleFlight.Loader<ObjectListing>() {
+      @Override
+      public ObjectListing load() {
+        try {
+          ObjectListing objects = client.listObjects(new ListObjectsRequest(bucket, prefix, null, delimiter, maxKeys));
+          statistics.incrementReadOps(1);
+          return objects;
+        } catch (OSSException | ClientException e) {
           LOG.error(e.getMessage());
           throw e;
         }
-      } catch (ClientException e) {
-        LOG.error(e.getMessage());
-        throw e;
       }
+    };
+    if (probeListings == null) {
+      return list.load();
     }
+    return probeListings.execute(prefix + '\n' + delimiter + '\n' + maxKeys, list);
+  }
 
-    //try to append '/' and get empty directory
-    if (!key.isEmpty() && !key.endsWith("/")) {
-      try {
-        String newKey = key + "/";
-        ObjectMetadata meta = client.getObjectMetadata(bucket, newKey);
-        statistics.incrementReadOps(1);
+  /**
+   * Probe a directory marker, then any object under the key.
+   *
+   * @return true if the key is a directory
+   */
+  private boolean isDirectoryKey(String key) throws IOException {
+    String dirKey = key + "/";
+    if (headObject(dirKey) != null) {
+      return true;
+    }
+    return !listForProbe(dirKey, 1).getObjectSummaries().isEmpty();
+  }
 
-        if (objectRepresentsDirectory(newKey, meta.getContentLength())) {
-          if (LOG.isDebugEnabled()) {
-            LOG.debug("Found file (with /): fake directory");
+  /**
+   * Tell what a key is from the first keys of a listing without delimiter, in lexicographic order.
+   *
+   * @return the status, or null if the listing does not tell
+   */
+  private OSSFileStatus statusFromListing(Path qualified, String key, ObjectListing objects) {
+    String dirKey = key + "/";
+    for (OSSObjectSummary summary : objects.getObjectSummaries()) {
+      if (summary.getKey().equals(key)) {
+        return new OSSFileStatus(summary.getSize(), dateToLong(summary.getLastModified()),
+                qualified, getDefaultBlockSize(qualified), summary.getETag());
+      } else if (objectRepresentsDirectory(summary.getKey(), summary.getSize()) && summary.getKey().equals(dirKey)) {
+        return new OSSFileStatus(true, true, qualified);
+      } else if (summary.getKey().startsWith(dirKey)) {
+        return new OSSFileStatus(true, false, qualified);
+      }
+    }
+    return null;
+  }
+
+  /**
+   * HEAD an object.
+   *
+   * @return the metadata, or null if there is no such object
+   */
+  private ObjectMetadata headObject(final String key) throws IOException {
+    OSSSingleFlight.Loader<ObjectMetadata> head = new OSSSingleFlight.Loader<ObjectMetadata>() {
+      @Override
+      public ObjectMetadata load() {
+        try {
+          ObjectMetadata meta = client.getObjectMetadata(bucket, key);
+          statistics.incrementReadOps(1);
+          return meta;
+        } catch (OSSException e) {
+          if (!e.getErrorCode().equals(OSSErrorCode.NO_SUCH_KEY)) {
+            LOG.error(e.getMessage());
+            throw e;
           }
-          return new OSSFileStatus(true, true, f.makeQualified(uri, workingDir));
-        }
-      } catch (OSSException e) {
-        if (!e.getErrorCode().equals(OSSErrorCode.NO_SUCH_KEY)) {
+          return null;
+        } catch (ClientException e) {
           LOG.error(e.getMessage());
           throw e;
         }
-      } catch (ClientException e) {
-        LOG.error(e.getMessage());
-        throw e;
+      }
+    };
+    if (heads == null) {
+      return head.load();
+    }
+    return heads.execute(key, head);
+  }
+
+  /**
+   * Get the status of a path from OSS: the object itself, then an empty directory marker, then
+   * any object under the path.
+   */
+  private OSSFileStatus probeSequentially(Path f, String key) throws IOException {
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Getting path status for " + f + " (" + key + ")");
+    }
+
+    //try to get object firstly
+    if (!key.isEmpty()) {
+      ObjectMetadata fileMetadata = headObject(key);
+      if (fileMetadata != null) {
+        if (LOG.isDebugEnabled()) {
+          LOG.debug("Found exact file: normal file");
+        }
+        return new OSSFileStatus(fileMetadata.getContentLength(),
+                dateToLong(fileMetadata.getLastModified()),
+                f.makeQualified(uri, workingDir),
+                getDefaultBlockSize(f.makeQualified(uri, workingDir)),
+                fileMetadata.getETag());
+      }
+    }
+
+    //try to append '/' and get empty directory
+    if (!key.isEmpty() && !key.endsWith("/")) {
+      String newKey = key + "/";
+      ObjectMetadata meta = headObject(newKey);
+      if (meta != null && objectRepresentsDirectory(newKey, meta.getContentLength())) {
+        if (LOG.isDebugEnabled()) {
+          LOG.debug("Found file (with /): fake directory");
+        }
+        return new OSSFileStatus(true, true, f.makeQualified(uri, workingDir));
       }
     }
 
@@ -788,14 +1624,7 @@ public class OSSFileSystem extends FileSystem {
       if (!key.isEmpty() && !key.endsWith("/")) {
         key = key + "/";
       }
-      ListObjectsRequest request = new ListObjectsRequest();
-      request.setBucketName(bucket);
-      request.setPrefix(key);
-      request.setDelimiter("/");
-      request.setMaxKeys(1);
-
-      ObjectListing objects = client.listObjects(request);
-      statistics.incrementReadOps(1);
+      ObjectListing objects = listForProbe(key, "/", 1);
 
       if (!objects.getCommonPrefixes().isEmpty()
               || objects.getObjectSummaries().size() > 0) {
@@ -832,6 +1661,41 @@ public class OSSFileSystem extends FileSystem {
 
   }
 
+  /**
+   * Copy a file to the local disk. Large files are downloaded by concurrent ranged GETs on the
+   * bulk pool, see {@link OSSParallelDownload}, directories and small files are copied through
+   * a single stream as usual. No checksum file is written for a file downloaded in parallel.
+   */
+  @Override
+  public void copyToLocalFile(boolean delSrc, Path src, Path dst, boolean useRawLocalFileSystem)
+          throws IOException {
+    OSSFileStatus status = getFileStatus(src);
+    if (!parallelDownload || !status.isFile() || status.getLen() < parallelDownloadThreshold) {
+      super.copyToLocalFile(delSrc, src, dst, useRawLocalFileSystem);
+      return;
+    }
+    LocalFileSystem local = getLocal(getConf());
+    File destination = local.pathToFile(dst);
+    if (destination.isDirectory()) {
+      destination = new File(destination, src.getName());
+      dst = new Path(dst, src.getName());
+    }
+    File parent = destination.getAbsoluteFile().getParentFile();
+    if (!parent.isDirectory() && !parent.mkdirs()) {
+      throw new IOException("Could not create directory " + parent);
+    }
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Downloading " + src + " to " + destination + " in parts of " + parallelDownloadPartSize + " bytes");
+    }
+    new OSSParallelDownload(client, bulkExecutor, statistics, bucket, pathToKey(src), status.getLen(),
+            status.getETag(), parallelDownloadPartSize).downloadTo(destination.getAbsoluteFile());
+    // a checksum of a previous file would not match the new content
+    local.delete(local.getChecksumFile(dst), false);
+    if (delSrc) {
+      delete(src, false);
+    }
+  }
+
   /**
    * The src file is on the local disk.  Add it to FS at
    * the given dst name.
@@ -851,7 +1715,7 @@ public class OSSFileSystem extends FileSystem {
                                 Path dst) throws IOException {
     String key = pathToKey(dst);
 
-    if (!overwrite && exists(dst)) {
+    if (!overwrite && !serverSideNoOverwrite && exists(dst)) {
       throw new IOException(dst + " already exists");
     }
     if (LOG.isDebugEnabled()) {
@@ -865,22 +1729,19 @@ public class OSSFileSystem extends FileSystem {
     final ObjectMetadata om = new ObjectMetadata();
     PutObjectRequest putObjectRequest = new PutObjectRequest(bucket, key, srcfile);
     putObjectRequest.setMetadata(om);
-    putObjectRequest.setProgressListener(new ProgressListener() {
-      public void progressChanged(ProgressEvent progressEvent) {
-        switch (progressEvent.getEventType()) {
-          case TRANSFER_PART_COMPLETED_EVENT:
-            statistics.incrementWriteOps(1);
-            break;
-          default:
-            break;
-        }
-      }
-    });
+    if (!overwrite && serverSideNoOverwrite) {
+      SmartOSSClient.forbidOverwrite(putObjectRequest);
+    }
 
     try {
       client.putObject(putObjectRequest);
       statistics.incrementWriteOps(1);
-    } catch (OSSException | ClientException e) {
+    } catch (OSSException e) {
+      if (SmartOSSClient.isFileAlreadyExists(e)) {
+        throw new FileAlreadyExistsException(dst + " already exists");
+      }
+      throw new IOException("Got interrupted, cancelling");
+    } catch (ClientException e) {
       throw new IOException("Got interrupted, cancelling");
     }
     // This will delete unnecessary fake parent directories
@@ -896,10 +1757,29 @@ public class OSSFileSystem extends FileSystem {
       super.close();
     } finally {
       // Shutdown the instance to release any allocated resources
+      if (readAheadExecutor != null) {
+        readAheadExecutor.shutdownNow();
+        readAheadExecutor = null;
+      }
+      if (hedgedReadExecutor != null) {
+        hedgedReadExecutor.shutdownNow();
+        hedgedReadExecutor = null;
+      }
+      if (tailCacheExecutor != null) {
+        tailCacheExecutor.shutdownNow();
+        tailCacheExecutor = null;
+      }
+      if (bulkExecutor != null) {
+        bulkExecutor.shutdownNow();
+        bulkExecutor = null;
+      }
       if (client != null) {
         client.shutdown();
         client = null;
       }
+      if (instrumentation != null) {
+        instrumentation.close();
+      }
     }
   }
 
@@ -913,7 +1793,8 @@ public class OSSFileSystem extends FileSystem {
   }
 
   /**
-   * Copy an existing file to another place.
+   * Copy an existing file to another place. The metadata of the source is copied by OSS, and its
+   * length is read right before the copy, since a cached status may be stale.
    *
    * @param srcKey source object key
    * @param dstKey destination object key
@@ -924,20 +1805,7 @@ public class OSSFileSystem extends FileSystem {
       LOG.debug("copyFile " + srcKey + " -> " + dstKey);
     }
 
-    ObjectMetadata om = client.getObjectMetadata(bucket, srcKey);
     CopyObjectRequest copyObjectRequest = new CopyObjectRequest(bucket, srcKey, bucket, dstKey);
-    copyObjectRequest.setNewObjectMetadata(om);
-    copyObjectRequest.setProgressListener(new ProgressListener() {
-      public void progressChanged(ProgressEvent progressEvent) {
-        switch (progressEvent.getEventType()) {
-          case TRANSFER_PART_COMPLETED_EVENT:
-            statistics.incrementWriteOps(1);
-            break;
-          default:
-            break;
-        }
-      }
-    });
     try {
       client.copyObject(copyObjectRequest);
       statistics.incrementWriteOps(1);
@@ -946,8 +1814,100 @@ public class OSSFileSystem extends FileSystem {
     }
   }
 
+  /**
+   * Copy an existing file whose length is known from a listing taken just before the copy.
+   *
+   * @param srcKey source object key
+   * @param dstKey destination object key
+   * @param size   length of the source in the listing
+   * @throws IOException
+   */
+  private void copyFile(String srcKey, String dstKey, long size) throws IOException {
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("copyFile " + srcKey + " -> " + dstKey);
+    }
+
+    CopyObjectRequest copyObjectRequest = new CopyObjectRequest(bucket, srcKey, bucket, dstKey);
+    try {
+      client.copyObject(copyObjectRequest, size);
+      statistics.incrementWriteOps(1);
+    } catch (OSSException | ClientException e) {
+      throw new IOException("Got interrupted, cancelling");
+    }
+  }
+
   public void finishedWrite(String key) throws IOException {
-    deleteUnnecessaryEmptyDirectories(keyToPath(key).getParent());
+    metadataChanged();
+    if (metadataCache != null) {
+      metadataCache.invalidateWrittenFile(key);
+    }
+    removeParentMarkers(keyToPath(key).getParent());
+  }
+
+  /**
+   * Remove the markers made unnecessary by a new object in a directory, as the marker policy says.
+   */
+  private void removeParentMarkers(Path parent) throws IOException {
+    switch (markerPolicy) {
+      case Keep:
+        break;
+      case Parent:
+        deleteParentMarker(parent);
+        break;
+      default:
+        deleteUnnecessaryEmptyDirectories(parent);
+    }
+  }
+
+  /**
+   * Delete the marker of a directory without probing it, unless it is known to have none.
+   * Deleting a missing object succeeds, so one request is enough.
+   */
+  private void deleteParentMarker(Path parent) throws IOException {
+    String key = pathToKey(parent);
+    if (key.isEmpty() || !unmarkedDirectories.add(key)) {
+      return;
+    }
+    try {
+      client.deleteObject(bucket, key + "/");
+      statistics.incrementWriteOps(1);
+    } catch (OSSException | ClientException e) {
+      unmarkedDirectories.remove(key);
+      throw new IOException("Failed to delete directory marker " + key + "/", e);
+    }
+    if (metadataCache != null) {
+      metadataCache.put(key, new OSSFileStatus(true, false, parent.makeQualified(uri, workingDir)));
+    }
+  }
+
+  private void forgetUnmarkedDirectories(String key) {
+    synchronized (unmarkedDirectories) {
+      for (Iterator<String> it = unmarkedDirectories.iterator(); it.hasNext(); ) {
+        String directory = it.next();
+        if (directory.equals(key) || directory.startsWith(key + "/")) {
+          it.remove();
+        }
+      }
+    }
+  }
+
+  /**
+   * Whether a directory holds nothing but its marker. A marker is not always deleted once the
+   * directory has children, so an empty directory status is checked with a short listing.
+   *
+   * @param key the key of the directory, with or without the trailing "/"
+   */
+  private boolean isEmptyDirectory(OSSFileStatus status, String key) throws IOException {
+    if (!status.isEmptyDirectory()) {
+      return false;
+    }
+    String dirKey = key.endsWith("/") ? key : key + "/";
+    for (OSSObjectSummary summary : listForProbe(dirKey, 2).getObjectSummaries()) {
+      if (!summary.getKey().equals(dirKey)) {
+        return false;
+      }
+    }
+    return true;
   }
 
   private void deleteUnnecessaryEmptyDirectories(Path f) throws IOException {
@@ -967,6 +1927,10 @@ public class OSSFileSystem extends FileSystem {
           client.deleteObject(bucket, key + "/");
           statistics.incrementWriteOps(1);
         }
+        // the directory has a child and no marker any more
+        if (metadataCache != null && status.isDirectory()) {
+          metadataCache.put(key, new OSSFileStatus(true, false, f.makeQualified(uri, workingDir)));
+        }
       } catch (FileNotFoundException | OSSException e) {
         throw new IOException("Got interrupted, cancelling");
       }
@@ -1021,6 +1985,41 @@ public class OSSFileSystem extends FileSystem {
     PutObjectRequest putObjectRequest = new PutObjectRequest(bucketName, objectName, nullStream, om);
     client.putObject(putObjectRequest);
     statistics.incrementWriteOps(1);
+    invalidateCache(objectName);
+    if (objectName.endsWith("/")) {
+      unmarkedDirectories.remove(objectName.substring(0, objectName.length() - 1));
+    }
+  }
+
+  /**
+   * Keep HEADs and listings sent before a change from being shared with later probes.
+   */
+  private void metadataChanged() {
+    if (heads != null) {
+      heads.invalidate();
+      probeListings.invalidate();
+    }
+  }
+
+  private OSSFileStatus cacheStatus(OSSFileStatus status) {
+    if (metadataCache != null) {
+      metadataCache.put(pathToKey(status.getPath()), status);
+    }
+    return status;
+  }
+
+  private void invalidateCache(String key) {
+    metadataChanged();
+    if (metadataCache != null) {
+      metadataCache.invalidate(key.endsWith("/") ? key.substring(0, key.length() - 1) : key);
+    }
+  }
+
+  private void invalidateCacheTree(String key) {
+    metadataChanged();
+    if (metadataCache != null) {
+      metadataCache.invalidateTree(key.endsWith("/") ? key.substring(0, key.length() - 1) : key);
+    }
   }
 
   /**
@@ -1047,4 +2046,236 @@ public class OSSFileSystem extends FileSystem {
     return date.getTime();
   }
 
+
+  /**
+   * Rename of all the objects under a directory prefix. Objects are copied in parallel on the
+   * bulk pool, reusing the sizes of the listing, and sources are deleted in asynchronous batches
+   * as their copies complete. A source is only deleted after its copy succeeded, so when a rename
+   * fails every object is either still under the source or already under the destination, and
+   * the rename can be resumed or rolled back by renaming the remaining objects.
+   */
+  private class DirectoryRename {
+    private final String srcKey;
+    private final String dstKey;
+    private final CompletionService<OSSObjectSummary> copies;
+    private final List<Future<Integer>> deletes = new ArrayList<Future<Integer>>();
+    private List<String> keysToDelete = new ArrayList<String>();
+    private int pendingCopies;
+    private long listedObjects;
+    private long copiedObjects;
+    private long copiedBytes;
+    private long deletedObjects;
+    private Throwable failure;
+
+    DirectoryRename(String srcKey, String dstKey) {
+      this.srcKey = srcKey;
+      this.dstKey = dstKey;
+      this.copies = new ExecutorCompletionService<OSSObjectSummary>(bulkExecutor);
+    }
+
+    /**
+     * @param initialDeletes keys to delete along with the sources, like the marker of an empty
+     *                       destination directory
+     */
+    void run(List<String> initialDeletes) throws IOException {
+      for (String key : initialDeletes) {
+        addKeyToDelete(key);
+      }
+      try {
+        ListObjectsRequest request = new ListObjectsRequest();
+        request.setBucketName(bucket);
+        request.setPrefix(srcKey);
+        request.setMaxKeys(MAX_RETURNED_KEYS_LIMIT);
+
+        ObjectListing objects = client.listObjects(request);
+        statistics.incrementReadOps(1);
+        while (failure == null) {
+          for (OSSObjectSummary summary : objects.getObjectSummaries()) {
+            listedObjects++;
+            submitCopy(summary);
+            collectCompletedCopies();
+            if (failure != null) {
+              break;
+            }
+          }
+          if (failure != null || !objects.isTruncated()) {
+            break;
+          }
+          objects = client.listObjects(request.withMarker(objects.getNextMarker()));
+          statistics.incrementReadOps(1);
+        }
+      } catch (OSSException | ClientException e) {
+        failure = e;
+      } catch (InterruptedIOException e) {
+        failure = e;
+      }
+
+      // wait for the copies in flight, so that their sources are deleted too
+      while (pendingCopies > 0) {
+        try {
+          collectCopy(copies.take());
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException(describe("Interrupted while renaming"));
+        }
+      }
+      if (!keysToDelete.isEmpty()) {
+        submitDelete();
+      }
+      waitForDeletes();
+
+      if (failure != null) {
+        throw new IOException(describe("Failed to rename"), failure);
+      }
+      if (LOG.isDebugEnabled()) {
+        LOG.debug(describe("Renamed"));
+      }
+    }
+
+    private void submitCopy(final OSSObjectSummary summary) throws InterruptedIOException {
+      final String newDstKey = dstKey + summary.getKey().substring(srcKey.length());
+      try {
+        copies.submit(new Callable<OSSObjectSummary>() {
+          @Override
+          public OSSObjectSummary call() throws IOException {
+            copyFile(summary.getKey(), newDstKey, summary.getSize());
+            return summary;
+          }
+        });
+      } catch (RejectedExecutionException e) {
+        throw (InterruptedIOException) new InterruptedIOException("Could not copy " + summary.getKey()).initCause(e);
+      }
+      pendingCopies++;
+    }
+
+    private void collectCompletedCopies() throws IOException {
+      Future<OSSObjectSummary> future;
+      while ((future = copies.poll()) != null) {
+        collectCopy(future);
+      }
+    }
+
+    private void collectCopy(Future<OSSObjectSummary> future) throws IOException {
+      pendingCopies--;
+      try {
+        OSSObjectSummary summary = future.get();
+        copiedObjects++;
+        copiedBytes += summary.getSize();
+        addKeyToDelete(summary.getKey());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException(describe("Interrupted while renaming"));
+      } catch (ExecutionException e) {
+        if (failure == null) {
+          failure = e.getCause();
+        }
+      }
+    }
+
+    private void addKeyToDelete(String key) throws IOException {
+      keysToDelete.add(key);
+      if (keysToDelete.size() == DELETE_OBJECTS_ONETIME_LIMIT) {
+        submitDelete();
+      }
+    }
+
+    private void submitDelete() throws IOException {
+      deletes.add(deleteObjectsAsync(keysToDelete));
+      keysToDelete = new ArrayList<String>();
+    }
+
+    private void waitForDeletes() throws IOException {
+      for (Future<Integer> future : deletes) {
+        try {
+          deletedObjects += future.get();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException(describe("Interrupted while renaming"));
+        } catch (ExecutionException e) {
+          if (failure == null) {
+            failure = e.getCause();
+          }
+        }
+      }
+      deletes.clear();
+    }
+
+    private String describe(String what) {
+      return what + " " + srcKey + " to " + dstKey + ": copied " + copiedObjects + " of " + listedObjects
+              + " listed objects (" + copiedBytes + " bytes), deleted " + deletedObjects + " keys";
+    }
+  }
+
+  /**
+   * Turns the pages of a listing into located statuses, one page at a time.
+   */
+  private class LocatedStatusIterator implements RemoteIterator<LocatedFileStatus> {
+    private final String dirKey;
+    private final boolean filesOnly;
+    private final PathFilter filter;
+    private final RemoteIterator<ObjectListing> pages;
+    private final LinkedList<LocatedFileStatus> statuses = new LinkedList<LocatedFileStatus>();
+
+    /**
+     * @param dir       the directory
+     * @param recursive list everything under the directory instead of its direct children
+     * @param filesOnly skip directories
+     * @param filter    accepted paths, null for all
+     */
+    LocatedStatusIterator(Path dir, boolean recursive, boolean filesOnly, PathFilter filter)
+            throws IOException {
+      String key = pathToKey(dir);
+      this.dirKey = key.isEmpty() ? key : key + "/";
+      this.filesOnly = filesOnly;
+      this.filter = filter;
+      // only recursive listings may come out of order, directory listings stay sorted
+      this.pages = listPages(dirKey, recursive ? null : "/", !recursive);
+    }
+
+    @Override
+    public boolean hasNext() throws IOException {
+      while (statuses.isEmpty() && pages.hasNext()) {
+        addPage(pages.next());
+      }
+      return !statuses.isEmpty();
+    }
+
+    @Override
+    public LocatedFileStatus next() throws IOException {
+      if (!hasNext()) {
+        throw new NoSuchElementException("No more entries under " + dirKey);
+      }
+      return statuses.removeFirst();
+    }
+
+    private void addPage(ObjectListing page) throws IOException {
+      for (OSSObjectSummary summary : page.getObjectSummaries()) {
+        if (summary.getKey().equals(dirKey)) {
+          continue;
+        }
+        Path keyPath = keyToPath(summary.getKey()).makeQualified(uri, workingDir);
+        if (objectRepresentsDirectory(summary.getKey(), summary.getSize())) {
+          if (!filesOnly) {
+            add(new OSSFileStatus(true, true, keyPath));
+          }
+        } else {
+          add(new OSSFileStatus(summary.getSize(), dateToLong(summary.getLastModified()), keyPath,
+                  getDefaultBlockSize(keyPath), summary.getETag()));
+        }
+      }
+      if (!filesOnly) {
+        for (String prefix : page.getCommonPrefixes()) {
+          add(new OSSFileStatus(true, false, keyToPath(prefix).makeQualified(uri, workingDir)));
+        }
+      }
+    }
+
+    private void add(OSSFileStatus status) throws IOException {
+      cacheStatus(status);
+      if (filter == null || filter.accept(status.getPath())) {
+        statuses.add(new LocatedFileStatus(status,
+                status.isFile() ? getFileBlockLocations(status, 0, status.getLen()) : null));
+      }
+    }
+  }
 }
@@ -0,0 +1,261 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.oss;
+
+import com.aliyun.oss.OSSClient;
+import com.aliyun.oss.model.GetObjectRequest;
+import com.aliyun.oss.model.OSSObject;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends a second GET when the first one has not answered within a delay, and reads from
+ * whichever answers first, as hedged reads do in HDFS.
+ * <p/>
+ * The delay is a percentile of the recent times to the response of GETs, never less than the
+ * minimum delay, and the initial delay until enough GETs were timed. Every GET earns a fraction
+ * of a hedge, so hedges are at most that fraction of all GETs, plus a small burst. The GETs run
+ * on their own pool, when it is saturated the GET runs on the caller thread without hedging.
+ * The losing GET is aborted when it answers.
+ */
+class OSSHedgedGets {
+  public static final Logger LOG = OSSFileSystem.LOG;
+
+  // number of recent response times the delay is computed from
+  private static final int WINDOW = 1024;
+  // the delay is recomputed after this many new samples
+  private static final int RECOMPUTE_INTERVAL = 64;
+  // hedges which may be sent in a row after a quiet period
+  private static final double MAX_BUDGET = 10;
+
+  private final OSSClient client;
+  private final ExecutorService executor;
+  private final long minDelay;
+  private final double percentile;
+  private final double budgetPerGet;
+  private final OSSHedgedReadMetrics metrics;
+
+  private final long[] samples = new long[WINDOW];
+  private long sampleCount;
+  private volatile long delay;
+  private double budget = MAX_BUDGET;
+
+  /**
+   * @param initialDelay milliseconds to wait before hedging, until enough GETs were timed
+   * @param minDelay     lower bound of the delay in milliseconds
+   * @param percentile   percentile of the response times used as delay, between 0 and 100
+   * @param budgetPerGet hedges earned by every GET, the maximum fraction of GETs being hedged
+   */
+  OSSHedgedGets(OSSClient client, ExecutorService executor, long initialDelay, long minDelay,
+                double percentile, double budgetPerGet, OSSHedgedReadMetrics metrics) {
+    this.client = client;
+    this.executor = executor;
+    this.delay = Math.max(initialDelay, minDelay);
+    this.minDelay = minDelay;
+    this.percentile = percentile;
+    this.budgetPerGet = budgetPerGet;
+    this.metrics = metrics;
+  }
+
+  /**
+   * Send a GET, hedged if it is slow.
+   *
+   * @return the content of the first answer
+   */
+  OSSObjectContent getObject(GetObjectRequest request) throws IOException {
+    Race race = new Race();
+    CompletionService<OSSObjectContent> attempts = new ExecutorCompletionService<OSSObjectContent>(executor);
+    try {
+      attempts.submit(new Attempt(race, request, false));
+    } catch (RejectedExecutionException e) {
+      return new OSSObjectContent(client.getObject(request));
+    }
+    earnBudget();
+
+    int running = 1;
+    Throwable failure = null;
+    try {
+      Future<OSSObjectContent> done = attempts.poll(delay, TimeUnit.MILLISECONDS);
+      if (done == null) {
+        if (spendBudget()) {
+          try {
+            attempts.submit(new Attempt(race, request, true));
+            running++;
+            metrics.incHedgedReadOps();
+            if (LOG.isDebugEnabled()) {
+              LOG.debug("Hedging GET of " + request.getKey() + " after " + delay + " ms");
+            }
+          } catch (RejectedExecutionException e) {
+            // the pool is busy, keep waiting for the first GET
+          }
+        } else {
+          metrics.incHedgedReadsOverBudget();
+        }
+      }
+      while (running > 0) {
+        if (done == null) {
+          done = attempts.take();
+        }
+        running--;
+        try {
+          OSSObjectContent content = done.get();
+          if (content != null) {
+            race.claim();
+            return content;
+          }
+        } catch (ExecutionException e) {
+          if (failure == null) {
+            failure = e.getCause();
+          }
+        }
+        done = null;
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while reading " + request.getKey());
+    } finally {
+      OSSObjectContent unclaimed = race.finish();
+      if (unclaimed != null) {
+        // a GET won after the caller gave up, nobody will read it
+        abort(unclaimed);
+      }
+    }
+    if (failure instanceof RuntimeException) {
+      throw (RuntimeException) failure;
+    }
+    throw new IOException("Failed to read " + request.getKey(), failure);
+  }
+
+  private synchronized void earnBudget() {
+    budget = Math.min(MAX_BUDGET, budget + budgetPerGet);
+  }
+
+  private synchronized boolean spendBudget() {
+    if (budget < 1) {
+      return false;
+    }
+    budget--;
+    return true;
+  }
+
+  private void addSample(long millis) {
+    long[] window = null;
+    synchronized (this) {
+      samples[(int) (sampleCount % WINDOW)] = millis;
+      sampleCount++;
+      if (sampleCount >= RECOMPUTE_INTERVAL && sampleCount % RECOMPUTE_INTERVAL == 0) {
+        window = Arrays.copyOf(samples, (int) Math.min(sampleCount, WINDOW));
+      }
+    }
+    if (window != null) {
+      Arrays.sort(window);
+      int index = (int) Math.min(window.length - 1, Math.ceil(window.length * percentile / 100) - 1);
+      delay = Math.max(minDelay, window[Math.max(0, index)]);
+    }
+  }
+
+  private static void abort(OSSObjectContent content) {
+    try {
+      content.abort();
+    } catch (IOException e) {
+      LOG.debug("Failed to abort the losing GET: " + e);
+    }
+  }
+
+  /**
+   * The GETs of one read, the first answer wins unless the caller already gave up.
+   */
+  private static final class Race {
+    private boolean finished;
+    // the content of the winner until the caller takes it
+    private OSSObjectContent winner;
+
+    synchronized boolean win(OSSObjectContent content) {
+      if (finished) {
+        return false;
+      }
+      finished = true;
+      winner = content;
+      return true;
+    }
+
+    /**
+     * The caller returns the content of the winner.
+     */
+    synchronized void claim() {
+      winner = null;
+    }
+
+    /**
+     * End the race, later answers lose.
+     *
+     * @return the content of a winner the caller did not take, null if none
+     */
+    synchronized OSSObjectContent finish() {
+      finished = true;
+      OSSObjectContent unclaimed = winner;
+      winner = null;
+      return unclaimed;
+    }
+  }
+
+  private final class Attempt implements Callable<OSSObjectContent> {
+    private final Race race;
+    private final GetObjectRequest request;
+    private final boolean hedge;
+
+    Attempt(Race race, GetObjectRequest request, boolean hedge) {
+      this.race = race;
+      this.request = request;
+      this.hedge = hedge;
+    }
+
+    /**
+     * @return the content, or null if another GET won
+     */
+    @Override
+    public OSSObjectContent call() {
+      long start = System.currentTimeMillis();
+      OSSObject object = client.getObject(request);
+      if (!hedge) {
+        addSample(System.currentTimeMillis() - start);
+      }
+      OSSObjectContent content = new OSSObjectContent(object);
+      if (!race.win(content)) {
+        abort(content);
+        return null;
+      }
+      if (hedge) {
+        metrics.incHedgedReadWins();
+      }
+      return content;
+    }
+  }
+}
@@ -0,0 +1,63 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.oss;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of the hedged GETs of one {@link OSSFileSystem}.
+ */
+public class OSSHedgedReadMetrics {
+  private final AtomicLong hedgedReadOps = new AtomicLong();
+  private final AtomicLong hedgedReadWins = new AtomicLong();
+  private final AtomicLong hedgedReadsOverBudget = new AtomicLong();
+
+  void incHedgedReadOps() {
+    hedgedReadOps.incrementAndGet();
+  }
+
+  void incHedgedReadWins() {
+    hedgedReadWins.incrementAndGet();
+  }
+
+  void incHedgedReadsOverBudget() {
+    hedgedReadsOverBudget.incrementAndGet();
+  }
+
+  /**
+   * @return the number of duplicate GETs sent because the first one was slow
+   */
+  public long getHedgedReadOps() {
+    return hedgedReadOps.get();
+  }
+
+  /**
+   * @return the number of duplicate GETs which answered before the first one
+   */
+  public long getHedgedReadWins() {
+    return hedgedReadWins.get();
+  }
+
+  /**
+   * @return the number of slow GETs which were not hedged because the budget was spent
+   */
+  public long getHedgedReadsOverBudget() {
+    return hedgedReadsOverBudget.get();
+  }
+}
@@ -0,0 +1,64 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.oss;
+
+import java.util.Locale;
+
+/**
+ * How {@link OSSInputStream} requests data from OSS.
+ */
+public enum OSSInputPolicy {
+  /**
+   * Every GET requests the whole remainder of the object, best for full scans.
+   */
+  Sequential("sequential"),
+  /**
+   * Every GET requests only the bytes being read plus the read-ahead range,
+   * best for columnar formats which seek a lot.
+   */
+  Random("random");
+
+  private final String name;
+
+  OSSInputPolicy(String name) {
+    this.name = name;
+  }
+
+  @Override
+  public String toString() {
+    return name;
+  }
+
+  /**
+   * Choose the policy from its configuration name, unknown names fall back to sequential.
+   *
+   * @param name policy name, case insensitive
+   * @return the input policy
+   */
+  public static OSSInputPolicy getPolicy(String name) {
+    String trimmed = name.trim().toLowerCase(Locale.ENGLISH);
+    if (Random.name.equals(trimmed)) {
+      return Random;
+    }
+    if (!Sequential.name.equals(trimmed)) {
+      OSSFileSystem.LOG.warn("Unrecognized input policy {}, using {}", name, Sequential);
+    }
+    return Sequential;
+  }
+}
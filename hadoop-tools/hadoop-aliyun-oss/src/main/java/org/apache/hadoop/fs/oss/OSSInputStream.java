@@ -20,9 +20,12 @@ package org.apache.hadoop.fs.oss;
 
 import com.aliyun.oss.OSSClient;
 import com.aliyun.oss.model.GetObjectRequest;
+import org.apache.hadoop.fs.ByteBufferReadable;
+import org.apache.hadoop.fs.CanSetReadahead;
 import org.apache.hadoop.fs.FSExceptionMessages;
 import org.apache.hadoop.fs.FSInputStream;
 import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.io.IOUtils;
 import org.slf4j.Logger;
 
 import java.io.EOFException;
@@ -30,48 +33,261 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.SocketException;
 import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * InputStream implementation for OSS Filesystem
+ * <p/>
+ * Seeks are lazy: they only record the target position, and the HTTP stream is moved on the
+ * next read. Short forward seeks skip bytes of the open stream instead of issuing a new GET,
+ * and with the {@link OSSInputPolicy#Random} policy every GET is bounded to the bytes being read
+ * plus the read-ahead range.
+ * <p/>
+ * Positioned reads issue their own ranged GETs without taking the stream lock, so they neither
+ * serialize concurrent readers nor disturb the position of the sequential stream.
  */
-public class OSSInputStream extends FSInputStream {
+public class OSSInputStream extends FSInputStream implements CanSetReadahead, ByteBufferReadable {
+  // size of the reusable buffer used to fill direct ByteBuffers from the HTTP stream
+  private static final int TRANSFER_BUFFER_SIZE = 64 * SmartOSSClientConfig.KB;
+
+  // position of the wrapped stream
   private long pos;
-  private boolean closed;
+  // position of the next byte returned to the caller, differs from pos after a lazy seek
+  private long nextReadPos;
+  // end (exclusive) of the range requested by the current GET
+  private long contentRangeFinish;
+  private volatile boolean closed;
   private FileSystem.Statistics stats;
   private String bucket;
   private String key;
   private long contentLength;
+  private OSSInputPolicy inputPolicy;
+  private long readahead;
   public static final Logger LOG = OSSFileSystem.LOG;
   private OSSClient ossClient;
   private InputStream inputStream;
+  // the GET inputStream reads, to abort it
+  private OSSObjectContent objectContent;
+  // only set in parallel read-ahead mode, in which reads are served from prefetched blocks
+  private OSSBlockPrefetcher prefetcher;
+  // sends the GETs of this stream when hedged reads are enabled
+  private OSSHedgedGets hedgedGets;
+  // metrics of the file system, null if the stream is not opened by one
+  private OSSInstrumentation instrumentation;
+  // runs the merged GETs of vectored reads, they run on the caller thread if null
+  private ExecutorService vectoredReadExecutor;
+  private int vectoredReadMinSeek = SmartOSSClientConfig.DEFAULT_VECTORED_READ_MIN_SEEK;
+  private int vectoredReadMaxMergedSize = SmartOSSClientConfig.DEFAULT_VECTORED_READ_MAX_MERGED_SIZE;
+  private byte[] transferBuffer;
+  // buffer of read() when it is served by the tail, the block cache or the prefetcher
+  private final byte[] singleByte = new byte[1];
+  // only set when the local block cache is enabled, in which reads are served from cached blocks
+  private OSSBlockCache blockCache;
+  private String eTag;
+  // mapping of the cached block sequential reads are in, and its index
+  private ByteBuffer cachedBlock;
+  private long cachedBlockIndex = -1;
+  // the last bytes of the object when the tail cache is enabled, reads within them are served from memory
+  private OSSTailCache.Tail tail;
 
   public OSSInputStream(String bucket, String key, long contentLength, OSSClient client,
                         FileSystem.Statistics stats) {
+    this(bucket, key, contentLength, client, stats, OSSInputPolicy.Sequential,
+            SmartOSSClientConfig.DEFAULT_READAHEAD_RANGE);
+  }
+
+  public OSSInputStream(String bucket, String key, long contentLength, OSSClient client,
+                        FileSystem.Statistics stats, OSSInputPolicy inputPolicy, long readahead) {
     this.bucket = bucket;
     this.key = key;
     this.contentLength = contentLength;
     this.ossClient = client;
     this.stats = stats;
+    this.inputPolicy = inputPolicy;
+    this.readahead = readahead;
     this.pos = 0;
+    this.nextReadPos = 0;
+    this.contentRangeFinish = 0;
     this.closed = false;
     this.inputStream = null;
   }
 
-  private void openIfNeeded() throws IOException {
+  /**
+   * Create an input stream in parallel read-ahead mode. The object is split into blocks of
+   * blockSize bytes, and up to prefetchBlocks blocks after the current one are fetched
+   * concurrently on the given executor.
+   */
+  public OSSInputStream(String bucket, String key, long contentLength, OSSClient client,
+                        FileSystem.Statistics stats, ExecutorService readAheadExecutor,
+                        int blockSize, int prefetchBlocks, int cacheBlocks) {
+    this(bucket, key, contentLength, client, stats);
+    this.prefetcher = new OSSBlockPrefetcher(bucket, key, contentLength, client,
+            readAheadExecutor, blockSize, prefetchBlocks, cacheBlocks);
+    // start fetching right away so the first read does not pay the full time to first byte
+    this.prefetcher.prefetchFrom(0);
+  }
+
+  /**
+   * Move the wrapped stream to nextReadPos before reading len bytes. Forward seeks within the
+   * read-ahead range are served by skipping bytes of the open stream, anything else reopens it.
+   */
+  private void lazySeek(long len) throws IOException {
+    if (inputStream != null) {
+      long diff = nextReadPos - pos;
+      if (diff == 0 && pos < contentRangeFinish) {
+        return;
+      }
+      if (diff > 0 && diff <= readahead && nextReadPos < contentRangeFinish) {
+        try {
+          IOUtils.skipFully(inputStream, diff);
+          pos = nextReadPos;
+          if (instrumentation != null) {
+            instrumentation.streamBytesSkipped(diff);
+          }
+          if (LOG.isDebugEnabled()) {
+            LOG.debug("Skipped " + diff + " bytes of " + key + " to seek to " + nextReadPos);
+          }
+          return;
+        } catch (IOException e) {
+          LOG.info("Failed to skip " + diff + " bytes of " + key + ", reopening " + e);
+        }
+      }
+    }
+    reopen(nextReadPos, len);
+  }
+
+  private synchronized void reopen(long pos, long len) throws IOException {
+
+    closeStream("reopen at pos " + pos);
+
+    checkSeekPosition(pos);
+
+    contentRangeFinish = calculateRequestLimit(pos, len);
+    LOG.debug("Actually opening file " + key + " at pos " + pos + " until " + contentRangeFinish);
+
+    GetObjectRequest request = new GetObjectRequest(bucket, key);
+    request.setRange(pos, contentRangeFinish - 1);
+
+    objectContent = getObject(request);
+    inputStream = objectContent.getStream();
+    if (instrumentation != null) {
+      instrumentation.streamOpened();
+    }
+
     if (inputStream == null) {
-      reopen(0);
+      throw new IOException("Null IO stream");
+    }
+
+    this.pos = pos;
+  }
+
+  private OSSObjectContent getObject(GetObjectRequest request) throws IOException {
+    if (hedgedGets != null) {
+      return hedgedGets.getObject(request);
     }
+    return new OSSObjectContent(ossClient.getObject(request));
   }
 
-  private synchronized void reopen(long pos) throws IOException {
+  /**
+   * Send the GETs of this stream through the given hedger, which duplicates slow GETs.
+   */
+  void setHedgedGets(OSSHedgedGets hedgedGets) {
+    this.hedgedGets = hedgedGets;
+  }
 
-    if (inputStream != null) {
+  void setInstrumentation(OSSInstrumentation instrumentation) {
+    this.instrumentation = instrumentation;
+  }
+
+  private void incrementBytesRead(long bytes) {
+    if (stats != null) {
+      stats.incrementBytesRead(bytes);
+    }
+    if (instrumentation != null) {
+      instrumentation.streamBytesRead(bytes);
+    }
+  }
+
+  private void incrementRetries() {
+    if (instrumentation != null) {
+      instrumentation.requestRetried();
+    }
+  }
+
+  /**
+   * Configure vectored reads of this stream.
+   *
+   * @param executor      runs the merged GETs concurrently
+   * @param minSeek       ranges separated by at most this many bytes are read by one GET
+   * @param maxMergedSize the largest merged range
+   */
+  void setVectoredRead(ExecutorService executor, int minSeek, int maxMergedSize) {
+    this.vectoredReadExecutor = executor;
+    this.vectoredReadMinSeek = minSeek;
+    this.vectoredReadMaxMergedSize = maxMergedSize;
+  }
+
+  /**
+   * Serve the reads of this stream from blocks of the local cache, which are downloaded on a miss.
+   *
+   * @param eTag ETag of the object, so that blocks of another version of the object are never read
+   */
+  void setBlockCache(OSSBlockCache blockCache, String eTag) {
+    this.blockCache = blockCache;
+    this.eTag = eTag;
+  }
+
+  /**
+   * Serve the reads of this stream within the tail of the object from memory.
+   */
+  void setTail(OSSTailCache.Tail tail) {
+    this.tail = tail;
+  }
+
+  private long calculateRequestLimit(long pos, long len) {
+    if (inputPolicy == OSSInputPolicy.Random) {
+      return Math.min(contentLength, pos + Math.max(len, readahead));
+    }
+    return contentLength;
+  }
+
+  /**
+   * Release the wrapped stream. Closing an HTTP stream drains what is left of the requested
+   * range, so the connection is aborted instead if more than the read-ahead range remains.
+   */
+  private void closeStream(String reason) throws IOException {
+    if (inputStream == null) {
+      return;
+    }
+    long remaining = contentRangeFinish - pos;
+    if (remaining > readahead && objectContent.isAbortable()) {
       if (LOG.isDebugEnabled()) {
-        LOG.debug("Aborting old stream " + "to open at pos " + pos);
+        LOG.debug("Aborting stream of " + key + " with " + remaining + " bytes left to " + reason);
+      }
+      objectContent.abort();
+      if (instrumentation != null) {
+        instrumentation.streamClosed(true, remaining);
+      }
+    } else {
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Closing stream of " + key + " with " + remaining + " bytes left to " + reason);
       }
       inputStream.close();
+      if (instrumentation != null) {
+        instrumentation.streamClosed(false, remaining);
+      }
     }
+    inputStream = null;
+    objectContent = null;
+  }
 
+  private void checkSeekPosition(long pos) throws EOFException {
     if (pos < 0) {
       throw new EOFException(FSExceptionMessages.NEGATIVE_SEEK + " " + pos);
     }
@@ -80,36 +296,30 @@ public class OSSInputStream extends FSInputStream {
       throw new EOFException(
               FSExceptionMessages.CANNOT_SEEK_PAST_EOF + " " + pos);
     }
-
-    LOG.debug("Actually opening file " + key + " at pos " + pos);
-
-    GetObjectRequest request = new GetObjectRequest(bucket, key);
-    request.setRange(pos, contentLength - 1);
-
-    inputStream = ossClient.getObject(request).getObjectContent();
-
-    if (inputStream == null) {
-      throw new IOException("Null IO stream");
-    }
-
-    this.pos = pos;
   }
 
   @Override
   public synchronized long getPos() throws IOException {
-    return pos;
+    return nextReadPos;
   }
 
   @Override
   public synchronized void seek(long pos) throws IOException {
     checkNotClosed();
 
-    if (this.pos == pos) {
+    if (this.nextReadPos == pos) {
       return;
     }
 
-    LOG.debug("Reopening " + this.key + " to seek to new offset " + (pos - this.pos));
-    reopen(pos);
+    checkSeekPosition(pos);
+    if (instrumentation != null) {
+      instrumentation.streamSeek(pos - nextReadPos);
+    }
+    // the stream is only moved on the next read
+    this.nextReadPos = pos;
+    if (prefetcher != null) {
+      prefetcher.prefetchFrom(pos);
+    }
   }
 
   @Override
@@ -121,27 +331,48 @@ public class OSSInputStream extends FSInputStream {
   public synchronized int read() throws IOException {
     checkNotClosed();
 
-    openIfNeeded();
+    byte[] tailBytes = tailAt(nextReadPos);
+    if (tailBytes != null) {
+      readFromTail(tailBytes, singleByte, 0, 1);
+      return singleByte[0] & 0xFF;
+    }
+
+    if (blockCache != null) {
+      return readFromCache(singleByte, 0, 1) > 0 ? singleByte[0] & 0xFF : -1;
+    }
+
+    if (prefetcher != null) {
+      return readFromBlocks(singleByte, 0, 1) > 0 ? singleByte[0] & 0xFF : -1;
+    }
+
+    if (nextReadPos >= contentLength) {
+      return -1;
+    }
+
+    lazySeek(1);
 
     int byteRead;
     try {
       byteRead = inputStream.read();
     } catch (SocketTimeoutException e) {
       LOG.info("Got timeout while trying to read from stream, trying to recover " + e);
-      reopen(pos);
+      incrementRetries();
+      reopen(nextReadPos, 1);
       byteRead = inputStream.read();
     } catch (SocketException e) {
       LOG.info("Got socket exception while trying to read from stream, trying to recover " + e);
-      reopen(pos);
+      incrementRetries();
+      reopen(nextReadPos, 1);
       byteRead = inputStream.read();
     }
 
     if (byteRead >= 0) {
       pos++;
+      nextReadPos++;
     }
 
-    if (stats != null && byteRead >= 0) {
-      stats.incrementBytesRead(1);
+    if (byteRead >= 0) {
+      incrementBytesRead(1);
     }
     return byteRead;
   }
@@ -150,32 +381,413 @@ public class OSSInputStream extends FSInputStream {
   public synchronized int read(byte[] buf, int off, int len) throws IOException {
     checkNotClosed();
 
-    openIfNeeded();
+    byte[] tailBytes = tailAt(nextReadPos);
+    if (tailBytes != null && len > 0) {
+      return readFromTail(tailBytes, buf, off, len);
+    }
+
+    if (blockCache != null) {
+      return readFromCache(buf, off, len);
+    }
+
+    if (prefetcher != null) {
+      return readFromBlocks(buf, off, len);
+    }
+
+    if (len == 0) {
+      return 0;
+    }
+
+    if (nextReadPos >= contentLength) {
+      return -1;
+    }
+
+    lazySeek(len);
 
     int byteRead;
     try {
       byteRead = inputStream.read(buf, off, len);
     } catch (SocketTimeoutException e) {
       LOG.info("Got timeout while trying to read from stream, trying to recover " + e);
-      reopen(pos);
+      incrementRetries();
+      reopen(nextReadPos, len);
       byteRead = inputStream.read(buf, off, len);
     } catch (SocketException e) {
       LOG.info("Got socket exception while trying to read from stream, trying to recover " + e);
-      reopen(pos);
+      incrementRetries();
+      reopen(nextReadPos, len);
       byteRead = inputStream.read(buf, off, len);
     }
 
     if (byteRead > 0) {
       pos += byteRead;
+      nextReadPos += byteRead;
+    }
+
+    if (byteRead > 0) {
+      incrementBytesRead(byteRead);
+    }
+
+    return byteRead;
+  }
+
+  /**
+   * Copy data of the current block to the buffer, never reads across a block boundary.
+   */
+  private int readFromBlocks(byte[] buf, int off, int len) throws IOException {
+    if (len == 0) {
+      return 0;
+    }
+    if (nextReadPos >= contentLength) {
+      return -1;
+    }
+
+    byte[] block = prefetcher.getBlock(nextReadPos);
+    int offsetInBlock = (int) (nextReadPos % prefetcher.getBlockSize());
+    int byteRead = Math.min(len, block.length - offsetInBlock);
+    System.arraycopy(block, offsetInBlock, buf, off, byteRead);
+    nextReadPos += byteRead;
+
+    incrementBytesRead(byteRead);
+    return byteRead;
+  }
+
+  /**
+   * @return the bytes of the tail of the object if it holds the position, null otherwise
+   */
+  private byte[] tailAt(long position) {
+    if (tail == null || position < tail.getStart() || position >= contentLength) {
+      return null;
+    }
+    try {
+      return tail.getBytes();
+    } catch (IOException e) {
+      // read from OSS as if there was no tail
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Failed to fetch the tail of " + key + ": " + e);
+      }
+      return null;
+    }
+  }
+
+  /**
+   * Copy data of the tail to the buffer from the current position.
+   */
+  private int readFromTail(byte[] tailBytes, byte[] buf, int off, int len) {
+    int offsetInTail = (int) (nextReadPos - tail.getStart());
+    int byteRead = Math.min(len, tailBytes.length - offsetInTail);
+    System.arraycopy(tailBytes, offsetInTail, buf, off, byteRead);
+    nextReadPos += byteRead;
+
+    incrementBytesRead(byteRead);
+    return byteRead;
+  }
+
+  /**
+   * Copy data of the current cached block to the buffer, never reads across a block boundary.
+   */
+  private int readFromCache(byte[] buf, int off, int len) throws IOException {
+    if (len == 0) {
+      return 0;
+    }
+    if (nextReadPos >= contentLength) {
+      return -1;
+    }
+
+    ByteBuffer block = currentCachedBlock();
+    int byteRead = Math.min(len, block.remaining());
+    block.get(buf, off, byteRead);
+    nextReadPos += byteRead;
+
+    incrementBytesRead(byteRead);
+    return byteRead;
+  }
+
+  /**
+   * @return the cached block containing nextReadPos, positioned at it
+   */
+  private ByteBuffer currentCachedBlock() throws IOException {
+    long index = nextReadPos / blockCache.getBlockSize();
+    if (cachedBlock == null || cachedBlockIndex != index) {
+      cachedBlock = blockCache.getBlock(bucket, key, eTag, contentLength, index);
+      cachedBlockIndex = index;
+    }
+    cachedBlock.position((int) (nextReadPos - index * blockCache.getBlockSize()));
+    return cachedBlock;
+  }
+
+  /**
+   * Read into the buffer from the current position. Heap buffers are filled in place, direct
+   * buffers are filled from the cached block in read-ahead mode, or through a reusable transfer
+   * buffer since the HTTP stream only reads into byte arrays.
+   */
+  @Override
+  public synchronized int read(ByteBuffer buf) throws IOException {
+    checkNotClosed();
+
+    int len = buf.remaining();
+    if (len == 0) {
+      return 0;
     }
 
-    if (stats != null && byteRead > 0) {
-      stats.incrementBytesRead(byteRead);
+    if (buf.hasArray()) {
+      int byteRead = read(buf.array(), buf.arrayOffset() + buf.position(), len);
+      if (byteRead > 0) {
+        buf.position(buf.position() + byteRead);
+      }
+      return byteRead;
     }
 
+    if (nextReadPos >= contentLength) {
+      return -1;
+    }
+
+    int byteRead;
+    byte[] tailBytes = tailAt(nextReadPos);
+    if (tailBytes != null) {
+      int offsetInTail = (int) (nextReadPos - tail.getStart());
+      byteRead = Math.min(len, tailBytes.length - offsetInTail);
+      buf.put(tailBytes, offsetInTail, byteRead);
+      nextReadPos += byteRead;
+      incrementBytesRead(byteRead);
+    } else if (blockCache != null) {
+      ByteBuffer block = currentCachedBlock().duplicate();
+      byteRead = Math.min(len, block.remaining());
+      block.limit(block.position() + byteRead);
+      buf.put(block);
+      nextReadPos += byteRead;
+      incrementBytesRead(byteRead);
+    } else if (prefetcher != null) {
+      byte[] block = prefetcher.getBlock(nextReadPos);
+      int offsetInBlock = (int) (nextReadPos % prefetcher.getBlockSize());
+      byteRead = Math.min(len, block.length - offsetInBlock);
+      buf.put(block, offsetInBlock, byteRead);
+      nextReadPos += byteRead;
+      incrementBytesRead(byteRead);
+    } else {
+      if (transferBuffer == null) {
+        transferBuffer = new byte[TRANSFER_BUFFER_SIZE];
+      }
+      byteRead = read(transferBuffer, 0, Math.min(len, transferBuffer.length));
+      if (byteRead > 0) {
+        buf.put(transferBuffer, 0, byteRead);
+      }
+    }
     return byteRead;
   }
 
+  /**
+   * Read bytes starting from the specified position with an independent ranged GET. It does not
+   * lock the stream and does not change the position of the sequential stream.
+   */
+  @Override
+  public int read(long position, byte[] buffer, int offset, int length)
+          throws IOException {
+    checkNotClosed();
+
+    if (position < 0) {
+      throw new EOFException(FSExceptionMessages.NEGATIVE_SEEK + " " + position);
+    }
+    if (length == 0) {
+      return 0;
+    }
+    if (position >= contentLength) {
+      return -1;
+    }
+
+    int toRead = (int) Math.min(length, contentLength - position);
+    byte[] tailBytes = tailAt(position);
+    if (tailBytes != null) {
+      System.arraycopy(tailBytes, (int) (position - tail.getStart()), buffer, offset, toRead);
+      incrementBytesRead(toRead);
+      return toRead;
+    }
+    if (blockCache != null) {
+      readRangeFromCache(position, buffer, offset, toRead);
+      incrementBytesRead(toRead);
+      return toRead;
+    }
+    try {
+      readRange(position, buffer, offset, toRead);
+    } catch (SocketTimeoutException | SocketException e) {
+      LOG.info("Got " + e + " while reading " + key + " at " + position + ", trying to recover");
+      incrementRetries();
+      readRange(position, buffer, offset, toRead);
+    }
+
+    incrementBytesRead(toRead);
+    return toRead;
+  }
+
+  @Override
+  public void readFully(long position, byte[] buffer, int offset, int length)
+          throws IOException {
+    if (position + length > contentLength) {
+      throw new EOFException(FSExceptionMessages.CANNOT_SEEK_PAST_EOF + " " + (position + length));
+    }
+    // a positioned read always reads the whole requested range
+    read(position, buffer, offset, length);
+  }
+
+  private void readRangeFromCache(long position, byte[] buffer, int offset, int length) throws IOException {
+    int blockSize = blockCache.getBlockSize();
+    while (length > 0) {
+      long index = position / blockSize;
+      // a mapping of its own, the sequential reads of the stream may use the current block
+      ByteBuffer block = blockCache.getBlock(bucket, key, eTag, contentLength, index);
+      block.position((int) (position - index * blockSize));
+      int n = Math.min(length, block.remaining());
+      block.get(buffer, offset, n);
+      position += n;
+      offset += n;
+      length -= n;
+    }
+  }
+
+  private void readRange(long position, byte[] buffer, int offset, int length) throws IOException {
+    GetObjectRequest request = new GetObjectRequest(bucket, key);
+    request.setRange(position, position + length - 1);
+
+    InputStream in = getObject(request).getStream();
+    if (in == null) {
+      throw new IOException("Null IO stream");
+    }
+    try {
+      IOUtils.readFully(in, buffer, offset, length);
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Read many ranges of the object at once. Ranges which are close to each other are merged and
+   * read by one GET, the merged ranges are read concurrently, and the future of every range
+   * completes as soon as its bytes are copied. Like positioned reads it does not change the
+   * position of the stream.
+   *
+   * @param ranges the ranges to read, which must not overlap; ranges beyond the end of the
+   *               object fail with an EOFException
+   * @throws IllegalArgumentException if ranges overlap, before any range is read
+   */
+  public void readVectored(List<OSSFileRange> ranges) throws IOException {
+    checkNotClosed();
+
+    // validate all the ranges before any of them completes or any GET is sent
+    List<OSSFileRange> all = new ArrayList<OSSFileRange>(ranges);
+    Collections.sort(all, new Comparator<OSSFileRange>() {
+      @Override
+      public int compare(OSSFileRange a, OSSFileRange b) {
+        return Long.compare(a.getOffset(), b.getOffset());
+      }
+    });
+    OSSFileRange previous = null;
+    for (OSSFileRange range : all) {
+      if (range.getLength() == 0) {
+        continue;
+      }
+      if (previous != null && range.getOffset() < previous.getEnd()) {
+        throw new IllegalArgumentException("Overlapping ranges " + previous + " and " + range);
+      }
+      previous = range;
+    }
+
+    List<OSSFileRange> sorted = new ArrayList<OSSFileRange>(all.size());
+    for (OSSFileRange range : all) {
+      if (range.getEnd() > contentLength) {
+        range.fail(new EOFException(FSExceptionMessages.CANNOT_SEEK_PAST_EOF + " " + range.getEnd()));
+      } else if (range.getLength() == 0) {
+        range.complete();
+      } else {
+        sorted.add(range);
+      }
+    }
+
+    int start = 0;
+    while (start < sorted.size()) {
+      long mergedStart = sorted.get(start).getOffset();
+      int end = start + 1;
+      while (end < sorted.size()
+              && sorted.get(end).getOffset() - sorted.get(end - 1).getEnd() <= vectoredReadMinSeek
+              && sorted.get(end).getEnd() - mergedStart <= vectoredReadMaxMergedSize) {
+        end++;
+      }
+      MergedRangeReader reader = new MergedRangeReader(sorted.subList(start, end));
+      if (vectoredReadExecutor == null) {
+        reader.run();
+      } else {
+        try {
+          vectoredReadExecutor.execute(reader);
+        } catch (RejectedExecutionException e) {
+          reader.run();
+        }
+      }
+      start = end;
+    }
+  }
+
+  /**
+   * Read adjacent ranges with one GET, skipping the gaps between them.
+   */
+  private class MergedRangeReader implements Runnable {
+    private final List<OSSFileRange> ranges;
+
+    MergedRangeReader(List<OSSFileRange> ranges) {
+      this.ranges = ranges;
+    }
+
+    @Override
+    public void run() {
+      long start = ranges.get(0).getOffset();
+      long end = ranges.get(ranges.size() - 1).getEnd();
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Reading " + ranges.size() + " ranges of " + key + " in [" + start + ", " + end + ")");
+      }
+      int done = 0;
+      OSSObjectContent content = null;
+      try {
+        GetObjectRequest request = new GetObjectRequest(bucket, key);
+        request.setRange(start, end - 1);
+        content = getObject(request);
+        InputStream in = content.getStream();
+        if (in == null) {
+          throw new IOException("Null IO stream");
+        }
+        long position = start;
+        for (OSSFileRange range : ranges) {
+          IOUtils.skipFully(in, range.getOffset() - position);
+          IOUtils.readFully(in, range.getBuffer(), range.getBufferOffset(), range.getLength());
+          position = range.getEnd();
+          incrementBytesRead(range.getLength());
+          range.complete();
+          done++;
+        }
+      } catch (Throwable t) {
+        for (OSSFileRange range : ranges.subList(done, ranges.size())) {
+          range.fail(t);
+        }
+      } finally {
+        if (content != null) {
+          closeContent(content, done < ranges.size());
+        }
+      }
+    }
+  }
+
+  /**
+   * Release a GET, aborting it rather than draining what is left if it failed half way.
+   */
+  private static void closeContent(OSSObjectContent content, boolean abort) {
+    try {
+      if (abort) {
+        content.abort();
+      } else {
+        content.getStream().close();
+      }
+    } catch (IOException e) {
+      LOG.debug("Failed to release a GET: " + e);
+    }
+  }
+
   private void checkNotClosed() throws IOException {
     if (closed) {
       throw new IOException(FSExceptionMessages.STREAM_IS_CLOSED);
@@ -186,16 +798,18 @@ public class OSSInputStream extends FSInputStream {
   public synchronized void close() throws IOException {
     super.close();
     closed = true;
-    if (inputStream != null) {
-      inputStream.close();
+    if (prefetcher != null) {
+      prefetcher.close();
     }
+    cachedBlock = null;
+    closeStream("close");
   }
 
   @Override
   public synchronized int available() throws IOException {
     checkNotClosed();
 
-    long remaining = this.contentLength - this.pos;
+    long remaining = this.contentLength - this.nextReadPos;
     if (remaining > Integer.MAX_VALUE) {
       return Integer.MAX_VALUE;
     }
@@ -206,4 +820,15 @@ public class OSSInputStream extends FSInputStream {
   public boolean markSupported() {
     return false;
   }
+
+  @Override
+  public synchronized void setReadahead(Long readahead) {
+    if (readahead == null) {
+      this.readahead = SmartOSSClientConfig.DEFAULT_READAHEAD_RANGE;
+    } else if (readahead < 0) {
+      throw new IllegalArgumentException("Negative readahead value");
+    } else {
+      this.readahead = readahead;
+    }
+  }
 }
@@ -0,0 +1,264 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.oss;
+
+import org.apache.hadoop.metrics2.MetricsCollector;
+import org.apache.hadoop.metrics2.MetricsRecordBuilder;
+import org.apache.hadoop.metrics2.MetricsSource;
+import org.apache.hadoop.metrics2.MetricsSystem;
+import org.apache.hadoop.metrics2.impl.MetricsSystemImpl;
+import org.apache.hadoop.metrics2.lib.Interns;
+import org.apache.hadoop.metrics2.lib.MetricsRegistry;
+import org.apache.hadoop.metrics2.lib.MutableCounterLong;
+import org.apache.hadoop.metrics2.lib.MutableQuantiles;
+
+import java.net.URI;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Metrics of one {@link OSSFileSystem}: the requests sent to each OSS API with their errors
+ * and latency quantiles, the bytes transferred, and the behaviour of input streams.
+ * <p/>
+ * Every file system registers as a source of the "oss-file-system" metrics system, so the
+ * sinks configured in hadoop-metrics2-oss-file-system.properties (or hadoop-metrics2.properties)
+ * receive them. The metrics system is started with the first file system and stopped when the
+ * last one is closed.
+ */
+public class OSSInstrumentation implements MetricsSource {
+  public static final String METRICS_SYSTEM_NAME = "oss-file-system";
+  public static final String CONTEXT = "ossFileSystem";
+  private static final String METRICS_SOURCE_BASENAME = "OSSMetrics";
+  // seconds over which the latency quantiles are computed
+  private static final int QUANTILES_INTERVAL = 60;
+
+  private static final Object METRICS_SYSTEM_LOCK = new Object();
+  private static MetricsSystem metricsSystem;
+  private static int metricsSourceNameCounter;
+  private static int metricsSourceActiveCounter;
+
+  /**
+   * The OSS APIs whose requests are measured.
+   */
+  public enum Api {
+    HEAD("object_head"),
+    GET("object_get"),
+    LIST("object_list"),
+    PUT("object_put"),
+    UPLOAD_PART("multipart_upload_part"),
+    MULTIPART("multipart_manage"),
+    COPY("object_copy"),
+    DELETE("object_delete"),
+    DELETE_OBJECTS("object_bulk_delete");
+
+    private final String prefix;
+
+    Api(String prefix) {
+      this.prefix = prefix;
+    }
+  }
+
+  private final MetricsRegistry registry = new MetricsRegistry("OSSFileSystem").setContext(CONTEXT);
+  private final Map<Api, MutableCounterLong> requests = new EnumMap<Api, MutableCounterLong>(Api.class);
+  private final Map<Api, MutableCounterLong> errors = new EnumMap<Api, MutableCounterLong>(Api.class);
+  private final Map<Api, MutableQuantiles> latencies = new EnumMap<Api, MutableQuantiles>(Api.class);
+  // retries of the file system only, the SDK retries failed requests on its own without telling
+  private final MutableCounterLong retries;
+  private final MutableCounterLong bytesUploaded;
+  private final MutableCounterLong streamOpened;
+  private final MutableCounterLong streamClosed;
+  private final MutableCounterLong streamAborted;
+  private final MutableCounterLong streamSeekForwards;
+  private final MutableCounterLong streamSeekBackwards;
+  private final MutableCounterLong streamBytesSkipped;
+  private final MutableCounterLong streamBytesRead;
+  private final MutableCounterLong streamBytesDiscarded;
+  private final MutableCounterLong throttled;
+  private final OSSHedgedReadMetrics hedgedReadMetrics;
+  private final OSSConcurrencyLimiter limiter;
+  private String metricsSourceName;
+
+  /**
+   * @param limiter the limiter of write requests to the bucket, null if disabled
+   */
+  public OSSInstrumentation(URI name, OSSHedgedReadMetrics hedgedReadMetrics, OSSConcurrencyLimiter limiter) {
+    this.hedgedReadMetrics = hedgedReadMetrics;
+    this.limiter = limiter;
+    registry.tag("fsId", "A unique identifier for the FS", UUID.randomUUID().toString());
+    registry.tag("fsURI", "URI of this filesystem", name.toString());
+    registry.tag("bucket", "Bucket of this filesystem", name.getHost());
+    for (Api api : Api.values()) {
+      requests.put(api, registry.newCounter(api.prefix + "_requests",
+              "Requests of " + api.prefix, 0L));
+      errors.put(api, registry.newCounter(api.prefix + "_errors",
+              "Failed requests of " + api.prefix, 0L));
+      latencies.put(api, registry.newQuantiles(api.prefix + "_latency",
+              "Latency of " + api.prefix + " in milliseconds", "ops", "latency", QUANTILES_INTERVAL));
+    }
+    retries = registry.newCounter("request_retries",
+            "Requests sent again by the file system after a failure, not counting the retries of the SDK", 0L);
+    throttled = registry.newCounter("request_throttled", "Requests refused by OSS because of the load", 0L);
+    bytesUploaded = registry.newCounter("bytes_uploaded", "Bytes sent by PUT and part uploads", 0L);
+    streamOpened = registry.newCounter("stream_opened", "GETs opened by input streams", 0L);
+    streamClosed = registry.newCounter("stream_close_operations", "GETs drained to be closed", 0L);
+    streamAborted = registry.newCounter("stream_aborted", "GETs aborted before their end", 0L);
+    streamSeekForwards = registry.newCounter("stream_seek_forwards", "Forward seeks of input streams", 0L);
+    streamSeekBackwards = registry.newCounter("stream_seek_backwards", "Backward seeks of input streams", 0L);
+    streamBytesSkipped = registry.newCounter("stream_bytes_skipped",
+            "Bytes skipped on the open GET to serve forward seeks", 0L);
+    streamBytesRead = registry.newCounter("stream_bytes_read", "Bytes returned by input streams", 0L);
+    streamBytesDiscarded = registry.newCounter("stream_bytes_discarded_in_close",
+            "Bytes drained when closing GETs", 0L);
+    registerAsMetricsSource(name);
+  }
+
+  private void registerAsMetricsSource(URI name) {
+    synchronized (METRICS_SYSTEM_LOCK) {
+      if (metricsSystem == null) {
+        metricsSystem = new MetricsSystemImpl();
+        metricsSystem.init(METRICS_SYSTEM_NAME);
+      }
+      metricsSourceNameCounter++;
+      metricsSourceActiveCounter++;
+      metricsSourceName = METRICS_SOURCE_BASENAME + metricsSourceNameCounter + "-" + name.getHost();
+      metricsSystem.register(metricsSourceName, "OSS file system metrics", this);
+    }
+  }
+
+  /**
+   * Unregister this source, and stop the metrics system if it was the last one.
+   */
+  public void close() {
+    synchronized (METRICS_SYSTEM_LOCK) {
+      if (metricsSourceName == null) {
+        return;
+      }
+      metricsSystem.unregisterSource(metricsSourceName);
+      metricsSourceName = null;
+      if (--metricsSourceActiveCounter == 0) {
+        metricsSystem.publishMetricsNow();
+        metricsSystem.shutdown();
+        metricsSystem = null;
+      }
+    }
+  }
+
+  @Override
+  public void getMetrics(MetricsCollector collector, boolean all) {
+    MetricsRecordBuilder record = collector.addRecord(registry.info().name());
+    registry.snapshot(record, true);
+    record.addCounter(Interns.info("hedged_read_ops", "GETs sent again because the first was slow"),
+            hedgedReadMetrics.getHedgedReadOps())
+          .addCounter(Interns.info("hedged_read_wins", "Hedged GETs answering before the first"),
+            hedgedReadMetrics.getHedgedReadWins())
+          .addCounter(Interns.info("hedged_reads_over_budget", "Slow GETs not hedged for lack of budget"),
+            hedgedReadMetrics.getHedgedReadsOverBudget());
+    if (limiter != null) {
+      // the limiter is shared by the file systems of the bucket
+      record.addGauge(Interns.info("limiter_limit", "Write requests allowed in flight to the bucket"),
+              limiter.getLimit())
+            .addGauge(Interns.info("limiter_in_flight", "Write requests in flight to the bucket"),
+              limiter.getInFlight())
+            .addCounter(Interns.info("limiter_throttled", "Throttled write requests to the bucket"),
+              limiter.getThrottled());
+    }
+  }
+
+  /**
+   * Record a request to OSS.
+   *
+   * @param api       the API called
+   * @param startNanos {@link System#nanoTime()} before the request was sent
+   * @param succeeded whether the request succeeded
+   */
+  void requestCompleted(Api api, long startNanos, boolean succeeded) {
+    requests.get(api).incr();
+    if (!succeeded) {
+      errors.get(api).incr();
+    }
+    latencies.get(api).add(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+  }
+
+  void requestThrottled() {
+    throttled.incr();
+  }
+
+  /**
+   * Count a request sent again by the file system: an input stream reopened after a failed read,
+   * or a request retried after being throttled. Retries made inside the SDK are not seen here.
+   */
+  void requestRetried() {
+    retries.incr();
+  }
+
+  void bytesUploaded(long bytes) {
+    bytesUploaded.incr(bytes);
+  }
+
+  void streamOpened() {
+    streamOpened.incr();
+  }
+
+  /**
+   * @param aborted   whether the connection was aborted rather than drained
+   * @param remaining bytes left in the GET when it was closed
+   */
+  void streamClosed(boolean aborted, long remaining) {
+    if (aborted) {
+      streamAborted.incr();
+    } else {
+      streamClosed.incr();
+      streamBytesDiscarded.incr(remaining);
+    }
+  }
+
+  void streamSeek(long distance) {
+    if (distance < 0) {
+      streamSeekBackwards.incr();
+    } else if (distance > 0) {
+      streamSeekForwards.incr();
+    }
+  }
+
+  void streamBytesSkipped(long bytes) {
+    streamBytesSkipped.incr(bytes);
+  }
+
+  void streamBytesRead(long bytes) {
+    streamBytesRead.incr(bytes);
+  }
+
+  long getRequestCount(Api api) {
+    return requests.get(api).value();
+  }
+
+  long getErrorCount(Api api) {
+    return errors.get(api).value();
+  }
+
+  long getStreamOpened() {
+    return streamOpened.value();
+  }
+
+  long getStreamBytesRead() {
+    return streamBytesRead.value();
+  }
+}
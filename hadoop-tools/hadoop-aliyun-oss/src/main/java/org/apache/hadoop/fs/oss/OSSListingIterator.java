@@ -0,0 +1,135 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.oss;
+
+import com.aliyun.oss.model.ListObjectsRequest;
+import com.aliyun.oss.model.ObjectListing;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.RemoteIterator;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Iterates over the pages of a listing, fetching the next page in the background while the
+ * caller consumes the current one.
+ */
+class OSSListingIterator implements RemoteIterator<ObjectListing> {
+
+  private final SmartOSSClient client;
+  private final ExecutorService executor;
+  private final FileSystem.Statistics statistics;
+  private final String bucket;
+  private final String prefix;
+  private final String delimiter;
+  private ObjectListing current;
+  private Future<ObjectListing> nextPage;
+  // marker of the next page when it could not be prefetched
+  private String deferredMarker;
+
+  /**
+   * Fetch the first page right away, so that errors are raised by the caller.
+   *
+   * @param delimiter "/" to list one directory level, null to list everything under the prefix
+   * @param marker    list keys after this one, null to start from the beginning of the prefix
+   * @param executor  fetches the next pages in the background, null to fetch them when needed
+   */
+  OSSListingIterator(SmartOSSClient client, ExecutorService executor, FileSystem.Statistics statistics,
+                     String bucket, String prefix, String delimiter, String marker) {
+    this.client = client;
+    this.executor = executor;
+    this.statistics = statistics;
+    this.bucket = bucket;
+    this.prefix = prefix;
+    this.delimiter = delimiter;
+    this.current = new PageFetcher(marker).call();
+  }
+
+  @Override
+  public boolean hasNext() {
+    return current != null || nextPage != null || deferredMarker != null;
+  }
+
+  @Override
+  public ObjectListing next() throws IOException {
+    if (current == null) {
+      if (nextPage != null) {
+        current = await(nextPage);
+        nextPage = null;
+      } else if (deferredMarker != null) {
+        current = new PageFetcher(deferredMarker).call();
+        deferredMarker = null;
+      } else {
+        throw new NoSuchElementException("No more pages under " + prefix);
+      }
+    }
+    ObjectListing page = current;
+    current = null;
+    if (page.isTruncated() && executor == null) {
+      deferredMarker = page.getNextMarker();
+    } else if (page.isTruncated()) {
+      try {
+        nextPage = executor.submit(new PageFetcher(page.getNextMarker()));
+      } catch (RejectedExecutionException e) {
+        // fetch it on the caller thread when it is needed
+        deferredMarker = page.getNextMarker();
+      }
+    }
+    return page;
+  }
+
+  private ObjectListing await(Future<ObjectListing> future) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while listing " + prefix);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new IOException("Failed to list " + prefix, e.getCause());
+    }
+  }
+
+  /**
+   * List one page of at most 1000 keys.
+   */
+  private class PageFetcher implements Callable<ObjectListing> {
+    private final String marker;
+
+    PageFetcher(String marker) {
+      this.marker = marker;
+    }
+
+    @Override
+    public ObjectListing call() {
+      ObjectListing page = client.listObjects(new ListObjectsRequest(bucket, prefix, marker, delimiter,
+              SmartOSSClientConfig.MAX_RETURNED_KEYS_LIMIT));
+      statistics.incrementReadOps(1);
+      return page;
+    }
+  }
+}
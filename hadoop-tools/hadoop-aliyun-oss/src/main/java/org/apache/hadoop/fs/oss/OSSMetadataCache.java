@@ -0,0 +1,156 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.oss;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Bounded LRU cache of file statuses of one {@link OSSFileSystem}, keyed by object key without
+ * trailing slash.
+ * <p/>
+ * Entries expire after a fixed time, so changes made by other clients are seen after at most
+ * that long. Changes made through the owning file system invalidate the affected entries.
+ * Paths known not to exist are cached too, as entries without status. Statuses are copied in and
+ * out, callers such as the globber change the path of the statuses they get.
+ */
+class OSSMetadataCache {
+
+  /**
+   * A cached lookup, {@link #getStatus()} is null if the path does not exist.
+   */
+  static final class CachedStatus {
+    private final OSSFileStatus status;
+    private final long expiry;
+
+    private CachedStatus(OSSFileStatus status, long expiry) {
+      this.status = status;
+      this.expiry = expiry;
+    }
+
+    /**
+     * @return a copy of the cached status, or null if the path does not exist
+     */
+    OSSFileStatus getStatus() {
+      return status == null ? null : new OSSFileStatus(status);
+    }
+  }
+
+  private final long ttl;
+  private final LinkedHashMap<String, CachedStatus> entries;
+  // the keys of the entries in lexicographic order, to forget the keys under a directory
+  private final TreeSet<String> sortedKeys = new TreeSet<String>();
+
+  /**
+   * @param maxEntries the maximum number of cached paths
+   * @param ttl        time to live of an entry, in milliseconds
+   */
+  OSSMetadataCache(final int maxEntries, long ttl) {
+    this.ttl = ttl;
+    this.entries = new LinkedHashMap<String, CachedStatus>(Math.min(maxEntries, 1024), 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, CachedStatus> eldest) {
+        if (size() > maxEntries) {
+          sortedKeys.remove(eldest.getKey());
+          return true;
+        }
+        return false;
+      }
+    };
+  }
+
+  /**
+   * @return the live entry of the key, or null if the key is not cached
+   */
+  synchronized CachedStatus get(String key) {
+    CachedStatus entry = entries.get(key);
+    if (entry != null && entry.expiry < System.currentTimeMillis()) {
+      remove(key);
+      entry = null;
+    }
+    return entry;
+  }
+
+  synchronized void put(String key, OSSFileStatus status) {
+    add(key, new CachedStatus(new OSSFileStatus(status), System.currentTimeMillis() + ttl));
+  }
+
+  synchronized void putNotFound(String key) {
+    add(key, new CachedStatus(null, System.currentTimeMillis() + ttl));
+  }
+
+  private void add(String key, CachedStatus entry) {
+    sortedKeys.add(key);
+    entries.put(key, entry);
+  }
+
+  private void remove(String key) {
+    entries.remove(key);
+    sortedKeys.remove(key);
+  }
+
+  /**
+   * Forget a key and its ancestors, whose existence or emptiness may depend on it.
+   */
+  synchronized void invalidate(String key) {
+    remove(key);
+    int slash = key.lastIndexOf('/');
+    while (slash > 0) {
+      key = key.substring(0, slash);
+      remove(key);
+      slash = key.lastIndexOf('/');
+    }
+  }
+
+  /**
+   * Forget a written file and the ancestors not known to be directories. Cached directories
+   * stay, they are still directories now that they contain the file.
+   */
+  synchronized void invalidateWrittenFile(String key) {
+    remove(key);
+    int slash = key.lastIndexOf('/');
+    while (slash > 0) {
+      key = key.substring(0, slash);
+      CachedStatus entry = entries.get(key);
+      if (entry != null && (entry.status == null || !entry.status.isDirectory())) {
+        remove(key);
+      }
+      slash = key.lastIndexOf('/');
+    }
+  }
+
+  /**
+   * Forget a key, its ancestors and everything under it, after a directory was deleted or renamed.
+   */
+  synchronized void invalidateTree(String key) {
+    invalidate(key);
+    String prefix = key.isEmpty() ? "" : key + "/";
+    // the keys under the directory follow the prefix in lexicographic order
+    for (Iterator<String> it = sortedKeys.tailSet(prefix).iterator(); it.hasNext(); ) {
+      String under = it.next();
+      if (!under.startsWith(prefix)) {
+        break;
+      }
+      it.remove();
+      entries.remove(under);
+    }
+  }
+}
@@ -0,0 +1,71 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.oss;
+
+import com.aliyun.oss.event.ProgressInputStream;
+import com.aliyun.oss.model.OSSObject;
+import org.apache.http.conn.EofSensorInputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The content of a GET together with the HTTP connection it is read from, so that a GET which
+ * is not read to its end can be aborted instead of drained.
+ * <p/>
+ * The SDK returns the entity of the response wrapped in its progress streams, the connection is
+ * looked up under them once when the GET answers.
+ */
+class OSSObjectContent {
+  private final InputStream stream;
+  // the entity of the response, null if the SDK returned something else
+  private final EofSensorInputStream connection;
+
+  OSSObjectContent(OSSObject object) {
+    this.stream = object.getObjectContent();
+    InputStream in = stream;
+    while (in instanceof ProgressInputStream) {
+      in = ((ProgressInputStream) in).getWrappedInputStream();
+    }
+    this.connection = in instanceof EofSensorInputStream ? (EofSensorInputStream) in : null;
+  }
+
+  InputStream getStream() {
+    return stream;
+  }
+
+  /**
+   * @return whether {@link #abort()} drops the connection rather than draining the content
+   */
+  boolean isAbortable() {
+    return connection != null;
+  }
+
+  /**
+   * Drop the connection without reading the rest of the content, or close the content if the
+   * connection is unknown.
+   */
+  void abort() throws IOException {
+    if (connection != null) {
+      connection.abortConnection();
+    } else if (stream != null) {
+      stream.close();
+    }
+  }
+}
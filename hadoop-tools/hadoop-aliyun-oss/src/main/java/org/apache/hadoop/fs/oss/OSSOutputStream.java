@@ -20,12 +20,11 @@ package org.apache.hadoop.fs.oss;
 
 import com.aliyun.oss.ClientException;
 import com.aliyun.oss.OSSException;
-import com.aliyun.oss.event.ProgressEvent;
-import com.aliyun.oss.event.ProgressListener;
 import com.aliyun.oss.model.CannedAccessControlList;
 import com.aliyun.oss.model.ObjectMetadata;
 import com.aliyun.oss.model.PutObjectRequest;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileAlreadyExistsException;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.LocalDirAllocator;
 import org.apache.hadoop.util.Progressable;
@@ -50,14 +49,16 @@ public class OSSOutputStream extends OutputStream {
   private OSSFileSystem fs;
   private FileSystem.Statistics statistics;
   private LocalDirAllocator lDirAlloc;
+  private boolean forbidOverwrite;
 
   public static final Logger LOG = OSSFileSystem.LOG;
 
   public OSSOutputStream(Configuration conf,
                          OSSFileSystem fs, String bucket, String key, Progressable progress,
-                         FileSystem.Statistics statistics)
+                         FileSystem.Statistics statistics, boolean forbidOverwrite)
           throws IOException {
     this.bucket = bucket;
+    this.forbidOverwrite = forbidOverwrite;
     this.key = key;
     this.progress = progress;
     this.fs = fs;
@@ -94,23 +95,21 @@ public class OSSOutputStream extends OutputStream {
       final ObjectMetadata om = new ObjectMetadata();
       PutObjectRequest putObjectRequest = new PutObjectRequest(bucket, key, backupFile);
       putObjectRequest.setMetadata(om);
-      putObjectRequest.setProgressListener(new ProgressListener() {
-        public void progressChanged(ProgressEvent progressEvent) {
-          switch (progressEvent.getEventType()) {
-            case TRANSFER_PART_COMPLETED_EVENT:
-              statistics.incrementWriteOps(1);
-              break;
-            default:
-              break;
-          }
-        }
-      });
+      if (forbidOverwrite) {
+        SmartOSSClient.forbidOverwrite(putObjectRequest);
+      }
 
       fs.getOSSClient().putObject(putObjectRequest);
+      statistics.incrementWriteOps(1);
 
       // This will delete unnecessary fake parent directories
       fs.finishedWrite(key);
-    } catch (OSSException | ClientException e) {
+    } catch (OSSException e) {
+      if (SmartOSSClient.isFileAlreadyExists(e)) {
+        throw new FileAlreadyExistsException(key + " already exists");
+      }
+      throw new IOException(e);
+    } catch (ClientException e) {
       throw new IOException(e);
     } finally {
       if (!backupFile.delete()) {
@@ -0,0 +1,386 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.oss;
+
+import com.aliyun.oss.ClientException;
+import com.aliyun.oss.OSSException;
+import com.aliyun.oss.model.GetObjectRequest;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.io.IOUtils;
+import org.slf4j.Logger;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Downloads an OSS object into a local file with concurrent ranged GETs.
+ * <p/>
+ * The object is split into fixed-size parts written at their offsets into a preallocated
+ * temporary file next to the destination, which is renamed over the destination once every part
+ * is written. A checkpoint file records the parts already written, so a download that failed is
+ * resumed by the next attempt as long as the object kept its ETag. Every part is read with the
+ * ETag as a condition, so parts of two versions of the object are never mixed.
+ * The checkpoint protects against failed requests and killed processes, not against the loss of
+ * unsynced data of a crashed host.
+ */
+class OSSParallelDownload {
+  public static final Logger LOG = OSSFileSystem.LOG;
+
+  private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+  private final SmartOSSClient client;
+  private final ExecutorService executor;
+  private final FileSystem.Statistics statistics;
+  private final String bucket;
+  private final String key;
+  private final long contentLength;
+  private final String eTag;
+  private final long partSize;
+  private final int partCount;
+  // the first part download which failed
+  private Throwable failure;
+  // parts being downloaded, and whether parts not started yet must not start
+  private int running;
+  private boolean stopped;
+
+  /**
+   * @param eTag     the ETag of the object, a checkpoint of another version is not resumed
+   * @param partSize the length of each ranged GET
+   */
+  OSSParallelDownload(SmartOSSClient client, ExecutorService executor, FileSystem.Statistics statistics,
+                      String bucket, String key, long contentLength, String eTag, long partSize) {
+    this.client = client;
+    this.executor = executor;
+    this.statistics = statistics;
+    this.bucket = bucket;
+    this.key = key;
+    this.contentLength = contentLength;
+    this.eTag = eTag;
+    this.partSize = partSize;
+    this.partCount = (int) ((contentLength + partSize - 1) / partSize);
+  }
+
+  /**
+   * Download the object, replacing the destination file.
+   *
+   * @throws IOException if a part could not be downloaded, the parts written so far are kept for
+   *                     the next attempt
+   */
+  void downloadTo(File destination) throws IOException {
+    File temporary = new File(destination.getParentFile(), "." + destination.getName() + ".oss-download");
+    File checkpointFile = new File(destination.getParentFile(), "." + destination.getName() + ".oss-checkpoint");
+    Checkpoint checkpoint = Checkpoint.load(checkpointFile);
+    if (checkpoint == null || !checkpoint.matches(this) || !temporary.isFile()) {
+      checkpoint = new Checkpoint(checkpointFile, bucket, key, contentLength, eTag, partSize,
+              new boolean[partCount]);
+    } else if (LOG.isDebugEnabled()) {
+      LOG.debug("Resuming download of " + key + " with " + checkpoint.written() + " of " + partCount + " parts");
+    }
+
+    RandomAccessFile file = new RandomAccessFile(temporary, "rw");
+    try {
+      file.setLength(contentLength);
+      downloadParts(file.getChannel(), checkpoint);
+    } finally {
+      file.close();
+    }
+
+    if (destination.exists() && !destination.delete()) {
+      throw new IOException("Could not replace " + destination);
+    }
+    if (!temporary.renameTo(destination)) {
+      throw new IOException("Could not rename " + temporary + " to " + destination);
+    }
+    checkpoint.delete();
+  }
+
+  private void downloadParts(final FileChannel channel, Checkpoint checkpoint) throws IOException {
+    CompletionService<Integer> parts = new ExecutorCompletionService<Integer>(executor);
+    List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+    int pending = 0;
+    boolean finished = false;
+    try {
+      for (int i = 0; i < partCount && failure == null; i++) {
+        if (checkpoint.isWritten(i)) {
+          continue;
+        }
+        final int part = i;
+        futures.add(parts.submit(new Callable<Integer>() {
+          @Override
+          public Integer call() throws IOException {
+            if (!partStarted()) {
+              throw new InterruptedIOException("Download of " + key + " was stopped");
+            }
+            try {
+              downloadPart(channel, part);
+            } finally {
+              partEnded();
+            }
+            return part;
+          }
+        }));
+        pending++;
+        // record finished parts while submitting, a killed download resumes from them
+        Future<Integer> done;
+        while ((done = parts.poll()) != null) {
+          collect(done, checkpoint);
+          pending--;
+        }
+      }
+      // let the submitted parts finish even after a failure, they are kept for the next attempt
+      for (; pending > 0; pending--) {
+        collect(parts.take(), checkpoint);
+      }
+      finished = true;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while downloading " + key);
+    } catch (RejectedExecutionException e) {
+      throw (InterruptedIOException) new InterruptedIOException("Could not download " + key).initCause(e);
+    } finally {
+      if (!finished) {
+        // the channel is closed by the caller, which must not happen while parts write to it
+        stopParts(futures);
+      }
+    }
+    if (failure != null) {
+      throw new IOException("Failed to download " + key + ", " + checkpoint.written() + " of " + partCount
+              + " parts are kept for the next attempt", failure);
+    }
+  }
+
+  private void collect(Future<Integer> part, Checkpoint checkpoint) throws InterruptedException, IOException {
+    try {
+      checkpoint.setWritten(part.get());
+    } catch (ExecutionException e) {
+      if (failure == null) {
+        failure = e.getCause();
+      }
+    }
+  }
+
+  /**
+   * @return false if the download was stopped before the part started
+   */
+  private synchronized boolean partStarted() {
+    if (stopped) {
+      return false;
+    }
+    running++;
+    return true;
+  }
+
+  private synchronized void partEnded() {
+    running--;
+    notifyAll();
+  }
+
+  /**
+   * Cancel the parts not started yet and wait for the running ones. Running parts are only
+   * interrupted if the caller was, an interrupted write closes the channel for every part.
+   */
+  private void stopParts(List<Future<Integer>> futures) {
+    boolean interrupted = Thread.currentThread().isInterrupted();
+    synchronized (this) {
+      stopped = true;
+    }
+    for (Future<Integer> future : futures) {
+      future.cancel(interrupted);
+    }
+    synchronized (this) {
+      while (running > 0) {
+        try {
+          wait();
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void downloadPart(FileChannel channel, int part) throws IOException {
+    long start = part * partSize;
+    long end = Math.min(start + partSize, contentLength);
+    GetObjectRequest request = new GetObjectRequest(bucket, key);
+    request.setRange(start, end - 1);
+    if (eTag != null) {
+      request.setMatchingETagConstraints(Collections.singletonList(eTag));
+    }
+    InputStream in;
+    try {
+      in = client.getObject(request).getObjectContent();
+      statistics.incrementReadOps(1);
+    } catch (OSSException | ClientException e) {
+      throw new IOException("Failed to open part " + part + " of " + key, e);
+    }
+    if (in == null) {
+      throw new IOException("Null IO stream");
+    }
+    try {
+      byte[] buffer = new byte[COPY_BUFFER_SIZE];
+      long position = start;
+      while (position < end) {
+        int read = in.read(buffer, 0, (int) Math.min(buffer.length, end - position));
+        if (read < 0) {
+          throw new IOException("Part " + part + " of " + key + " ended at " + position + " instead of " + end);
+        }
+        ByteBuffer data = ByteBuffer.wrap(buffer, 0, read);
+        while (data.hasRemaining()) {
+          position += channel.write(data, position);
+        }
+        statistics.incrementBytesRead(read);
+      }
+    } finally {
+      in.close();
+    }
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Downloaded part " + part + " [" + start + ", " + end + ") of " + key);
+    }
+  }
+
+  /**
+   * The parts of one version of an object already written to the temporary file.
+   */
+  private static final class Checkpoint {
+    private final File file;
+    private final String bucket;
+    private final String key;
+    private final long contentLength;
+    private final String eTag;
+    private final long partSize;
+    private final boolean[] written;
+
+    Checkpoint(File file, String bucket, String key, long contentLength, String eTag,
+               long partSize, boolean[] written) {
+      this.file = file;
+      this.bucket = bucket;
+      this.key = key;
+      this.contentLength = contentLength;
+      this.eTag = eTag;
+      this.partSize = partSize;
+      this.written = written;
+    }
+
+    /**
+     * @return the checkpoint, or null if there is none or it can not be read
+     */
+    static Checkpoint load(File file) {
+      if (!file.isFile()) {
+        return null;
+      }
+      Properties properties = new Properties();
+      InputStream in = null;
+      try {
+        in = new FileInputStream(file);
+        properties.load(in);
+        String parts = properties.getProperty("parts");
+        boolean[] written = new boolean[parts.length()];
+        for (int i = 0; i < written.length; i++) {
+          written[i] = parts.charAt(i) == '1';
+        }
+        return new Checkpoint(file, properties.getProperty("bucket"), properties.getProperty("key"),
+                Long.parseLong(properties.getProperty("length")),
+                properties.getProperty("eTag"),
+                Long.parseLong(properties.getProperty("partSize")), written);
+      } catch (IOException | RuntimeException e) {
+        LOG.warn("Ignoring unreadable download checkpoint " + file + ": " + e);
+        return null;
+      } finally {
+        IOUtils.closeStream(in);
+      }
+    }
+
+    boolean matches(OSSParallelDownload download) {
+      return download.bucket.equals(bucket) && download.key.equals(key)
+              && download.contentLength == contentLength && download.eTag != null && download.eTag.equals(eTag)
+              && download.partSize == partSize && download.partCount == written.length;
+    }
+
+    boolean isWritten(int part) {
+      return written[part];
+    }
+
+    int written() {
+      int count = 0;
+      for (boolean part : written) {
+        count += part ? 1 : 0;
+      }
+      return count;
+    }
+
+    /**
+     * Record a written part, replacing the checkpoint file atomically.
+     */
+    void setWritten(int part) throws IOException {
+      written[part] = true;
+      StringBuilder parts = new StringBuilder(written.length);
+      for (boolean w : written) {
+        parts.append(w ? '1' : '0');
+      }
+      Properties properties = new Properties();
+      properties.setProperty("bucket", bucket);
+      properties.setProperty("key", key);
+      properties.setProperty("length", Long.toString(contentLength));
+      if (eTag != null) {
+        properties.setProperty("eTag", eTag);
+      }
+      properties.setProperty("partSize", Long.toString(partSize));
+      properties.setProperty("parts", parts.toString());
+
+      File next = new File(file.getPath() + ".tmp");
+      OutputStream out = new FileOutputStream(next);
+      try {
+        properties.store(out, null);
+      } finally {
+        out.close();
+      }
+      if (!next.renameTo(file)) {
+        throw new IOException("Could not update download checkpoint " + file);
+      }
+    }
+
+    void delete() {
+      if (file.exists() && !file.delete()) {
+        LOG.warn("Could not delete download checkpoint " + file);
+      }
+    }
+  }
+}
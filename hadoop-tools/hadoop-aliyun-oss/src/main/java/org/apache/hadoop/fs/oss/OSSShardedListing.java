@@ -0,0 +1,475 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.oss;
+
+import com.aliyun.oss.model.ListObjectsRequest;
+import com.aliyun.oss.model.OSSObjectSummary;
+import com.aliyun.oss.model.ObjectListing;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.RemoteIterator;
+import org.slf4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Lists a large prefix as several lexicographic key ranges at the same time, instead of paging
+ * through it one request after the other.
+ * <p/>
+ * The first two pages are listed one after the other, a listing ending there is not split. Beyond
+ * the second page, the key space is sampled: for every character position of the last listed key
+ * where larger keys exist, the keys following candidate strings like
+ * {@code prefix + "part-1"} are probed with single-key listings. The distinct keys found split
+ * the rest of the listing into ranges, which are listed concurrently on the given pool, each
+ * from the marker of its first key to the first key of the next range. At most SAMPLES_PER_SHARD
+ * probes are sent per range, so a listing of a few pages costs a few more requests only.
+ * <p/>
+ * Pages are returned either in key order, range after range, or in the order they arrive. Each
+ * range lists at most a few pages ahead of the caller: it leaves the pool once that many of its
+ * pages wait in the queue, and is scheduled again when the caller takes one, so a slow or
+ * abandoned listing neither fills the heap nor holds threads of the pool. Closing the iterator,
+ * or a failed range, stops the other ranges after their current page.
+ */
+class OSSShardedListing {
+  public static final Logger LOG = OSSFileSystem.LOG;
+
+  // candidate characters of sampled boundaries, in ascending order
+  private static final String SAMPLE_ALPHABET =
+          "-.0123456789=ABCDEFGHIJKLMNOPQRSTUVWXYZ_abcdefghijklmnopqrstuvwxyz";
+  // sorts after every key sharing the characters before it
+  private static final String MAX_SUFFIX = "\uffff";
+  // pages each range lists ahead of the caller
+  private static final int MAX_BUFFERED_PAGES = 2;
+  // single-key listings sent per range at most, whatever the configured number of samples
+  private static final int SAMPLES_PER_SHARD = 4;
+
+  private final SmartOSSClient client;
+  private final ExecutorService executor;
+  private final FileSystem.Statistics statistics;
+  private final String bucket;
+  private final String prefix;
+  private final String delimiter;
+  private final int maxShards;
+  private final int maxSamples;
+
+  /**
+   * @param delimiter  "/" to list one directory level, null to list everything under the prefix
+   * @param maxShards  the maximum number of ranges listed at once
+   * @param maxSamples the maximum number of probes used to split the key space
+   */
+  OSSShardedListing(SmartOSSClient client, ExecutorService executor, FileSystem.Statistics statistics,
+                    String bucket, String prefix, String delimiter, int maxShards, int maxSamples) {
+    this.client = client;
+    this.executor = executor;
+    this.statistics = statistics;
+    this.bucket = bucket;
+    this.prefix = prefix;
+    this.delimiter = delimiter;
+    this.maxShards = maxShards;
+    this.maxSamples = maxSamples;
+  }
+
+  /**
+   * Start listing.
+   *
+   * @param sorted return pages in key order, otherwise as soon as they are listed
+   * @return the pages of the listing, only the first two are guaranteed to be full, the iterator
+   * is {@link Closeable} to stop listing before the end
+   */
+  RemoteIterator<ObjectListing> list(boolean sorted) throws IOException {
+    List<ObjectListing> leading = new ArrayList<ObjectListing>();
+    ObjectListing last = listPage(prefix, null, SmartOSSClientConfig.MAX_RETURNED_KEYS_LIMIT);
+    leading.add(last);
+    if (last.isTruncated()) {
+      last = listPage(prefix, last.getNextMarker(), SmartOSSClientConfig.MAX_RETURNED_KEYS_LIMIT);
+      leading.add(last);
+    }
+    if (!last.isTruncated()) {
+      return new PageIterator(leading, new ArrayList<Shard>(), null);
+    }
+    List<ObjectListing> boundaries = sample(last.getNextMarker());
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("Listing {} as {} ranges", prefix, boundaries.size() + 1);
+    }
+
+    BlockingQueue<ShardPage> shared = sorted ? null
+            : new ArrayBlockingQueue<ShardPage>((boundaries.size() + 1) * MAX_BUFFERED_PAGES);
+    List<Shard> shards = new ArrayList<Shard>();
+    String start = last.getNextMarker();
+    ObjectListing startPage = null;
+    for (ObjectListing boundary : boundaries) {
+      String end = firstName(boundary);
+      shards.add(new Shard(startPage, start, end, shared));
+      startPage = boundary;
+      start = end;
+    }
+    shards.add(new Shard(startPage, start, null, shared));
+    for (Shard shard : shards) {
+      shard.schedule();
+    }
+    return new PageIterator(leading, shards, shared);
+  }
+
+  /**
+   * Find keys spread over the key space after a marker.
+   *
+   * @return up to maxShards - 1 single-entry pages, in key order
+   */
+  private List<ObjectListing> sample(String after) throws IOException {
+    int samples = Math.min(maxSamples, SAMPLES_PER_SHARD * maxShards);
+    // first find the positions where keys larger than the marker branch off
+    List<String> levelProbes = new ArrayList<String>();
+    for (int j = prefix.length(); j < after.length() && levelProbes.size() < samples / 2; j++) {
+      levelProbes.add(after.substring(0, j + 1) + MAX_SUFFIX);
+    }
+    List<ObjectListing> levels = probe(levelProbes);
+    List<String> candidates = new ArrayList<String>();
+    int maxCandidates = samples - levelProbes.size();
+    for (int i = 0; i < levels.size() && candidates.size() < maxCandidates; i++) {
+      int j = prefix.length() + i;
+      String next = levels.get(i) == null ? null : firstName(levels.get(i));
+      if (next == null || !next.startsWith(after.substring(0, j))) {
+        continue;
+      }
+      for (char c : SAMPLE_ALPHABET.toCharArray()) {
+        if (c > after.charAt(j) && candidates.size() < maxCandidates) {
+          candidates.add(after.substring(0, j) + c);
+        }
+      }
+    }
+
+    TreeMap<String, ObjectListing> found = new TreeMap<String, ObjectListing>();
+    for (ObjectListing page : probe(candidates)) {
+      if (page != null) {
+        found.put(firstName(page), page);
+      }
+    }
+    List<ObjectListing> all = new ArrayList<ObjectListing>(found.values());
+    if (all.size() < maxShards) {
+      return all;
+    }
+    List<ObjectListing> chosen = new ArrayList<ObjectListing>();
+    for (int i = 1; i < maxShards; i++) {
+      chosen.add(all.get(i * all.size() / maxShards));
+    }
+    return chosen;
+  }
+
+  /**
+   * List the first entry after each marker, concurrently.
+   *
+   * @return for each marker, a page with only its first key or common prefix, or null if none
+   */
+  private List<ObjectListing> probe(List<String> markers) throws IOException {
+    List<Future<ObjectListing>> futures = new ArrayList<Future<ObjectListing>>(markers.size());
+    try {
+      for (final String marker : markers) {
+        futures.add(executor.submit(new Callable<ObjectListing>() {
+          @Override
+          public ObjectListing call() {
+            ObjectListing page = listPage(prefix, marker, 1);
+            return page.getObjectSummaries().isEmpty() && page.getCommonPrefixes().isEmpty() ? null : page;
+          }
+        }));
+      }
+      List<ObjectListing> pages = new ArrayList<ObjectListing>(futures.size());
+      for (Future<ObjectListing> future : futures) {
+        ObjectListing page = future.get();
+        if (page != null) {
+          page.setTruncated(false);
+        }
+        pages.add(page);
+      }
+      return pages;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while sampling " + prefix);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new IOException("Failed to sample " + prefix, e.getCause());
+    } catch (RejectedExecutionException e) {
+      throw (InterruptedIOException) new InterruptedIOException("Could not sample " + prefix).initCause(e);
+    } finally {
+      for (Future<ObjectListing> future : futures) {
+        future.cancel(true);
+      }
+    }
+  }
+
+  private ObjectListing listPage(String listPrefix, String marker, int maxKeys) {
+    ObjectListing page = client.listObjects(new ListObjectsRequest(bucket, listPrefix, marker, delimiter, maxKeys));
+    statistics.incrementReadOps(1);
+    return page;
+  }
+
+  /**
+   * @return the smallest key or common prefix of a page
+   */
+  private static String firstName(ObjectListing page) {
+    String name = null;
+    if (!page.getObjectSummaries().isEmpty()) {
+      name = page.getObjectSummaries().get(0).getKey();
+    }
+    if (!page.getCommonPrefixes().isEmpty()) {
+      String commonPrefix = page.getCommonPrefixes().get(0);
+      if (name == null || commonPrefix.compareTo(name) < 0) {
+        name = commonPrefix;
+      }
+    }
+    return name;
+  }
+
+  /**
+   * Drop the entries of a page at or after the end of its range.
+   */
+  private static void trim(ObjectListing page, String end) {
+    boolean trimmed = false;
+    for (Iterator<OSSObjectSummary> it = page.getObjectSummaries().iterator(); it.hasNext(); ) {
+      if (it.next().getKey().compareTo(end) >= 0) {
+        it.remove();
+        trimmed = true;
+      }
+    }
+    for (Iterator<String> it = page.getCommonPrefixes().iterator(); it.hasNext(); ) {
+      if (it.next().compareTo(end) >= 0) {
+        it.remove();
+        trimmed = true;
+      }
+    }
+    if (trimmed || (page.getNextMarker() != null && page.getNextMarker().compareTo(end) >= 0)) {
+      page.setTruncated(false);
+    }
+  }
+
+  /**
+   * A page, the end of a range, or the failure of a range.
+   */
+  private static final class ShardPage {
+    private final Shard shard;
+    private final ObjectListing page;
+    private final Throwable failure;
+
+    private ShardPage(Shard shard, ObjectListing page, Throwable failure) {
+      this.shard = shard;
+      this.page = page;
+      this.failure = failure;
+    }
+  }
+
+  /**
+   * Lists one range: its first entry, found by sampling, then the entries after it up to the
+   * first entry of the next range. A run lists pages until MAX_BUFFERED_PAGES of them wait for
+   * the caller, and the range is scheduled again as the caller takes them.
+   */
+  private class Shard implements Runnable {
+    private final String end;
+    private final BlockingQueue<ShardPage> queue;
+    // the first entry of the range, until it is queued
+    private ObjectListing startPage;
+    // marker of the next page
+    private String marker;
+    // pages of this range in the queue
+    private int buffered;
+    // submitted to the pool or running
+    private boolean scheduled;
+    // the end or the failure of the range is queued
+    private boolean finished;
+    private boolean cancelled;
+
+    /**
+     * @param startPage the first entry of the range, null for the range right after the second page
+     * @param start     list after this marker
+     * @param end       first name of the next range, null for the last range
+     * @param shared    queue of all ranges, null to keep the pages of this range apart
+     */
+    Shard(ObjectListing startPage, String start, String end, BlockingQueue<ShardPage> shared) {
+      this.startPage = startPage;
+      this.marker = start;
+      this.end = end;
+      this.queue = shared != null ? shared : new ArrayBlockingQueue<ShardPage>(MAX_BUFFERED_PAGES);
+    }
+
+    /**
+     * Submit the range to the pool, or list its next pages on the caller thread if the pool is
+     * shut down.
+     */
+    void schedule() {
+      synchronized (this) {
+        if (scheduled || finished || cancelled || buffered >= MAX_BUFFERED_PAGES) {
+          return;
+        }
+        scheduled = true;
+      }
+      try {
+        executor.submit(this);
+      } catch (RejectedExecutionException e) {
+        run();
+      }
+    }
+
+    /**
+     * Called when the caller takes a page of this range, to resume listing it.
+     */
+    void taken() {
+      synchronized (this) {
+        buffered--;
+      }
+      schedule();
+    }
+
+    synchronized void cancel() {
+      cancelled = true;
+    }
+
+    @Override
+    public void run() {
+      while (true) {
+        synchronized (this) {
+          if (finished || cancelled || buffered >= MAX_BUFFERED_PAGES) {
+            scheduled = false;
+            return;
+          }
+          buffered++;
+        }
+        ShardPage shardPage;
+        try {
+          shardPage = new ShardPage(this, nextPage(), null);
+        } catch (Throwable t) {
+          shardPage = new ShardPage(this, null, t);
+        }
+        synchronized (this) {
+          finished = shardPage.page == null;
+        }
+        // never blocks, the queue has room for the pages of every range
+        queue.add(shardPage);
+      }
+    }
+
+    /**
+     * @return the next page of the range, or null at its end
+     */
+    private ObjectListing nextPage() {
+      if (startPage != null) {
+        ObjectListing page = startPage;
+        startPage = null;
+        return page;
+      }
+      if (marker == null) {
+        return null;
+      }
+      ObjectListing page = listPage(prefix, marker, SmartOSSClientConfig.MAX_RETURNED_KEYS_LIMIT);
+      if (end != null) {
+        trim(page, end);
+      }
+      marker = page.isTruncated() ? page.getNextMarker() : null;
+      return page;
+    }
+  }
+
+  /**
+   * Returns the pages listed one after the other, then the pages of the ranges.
+   */
+  private class PageIterator implements RemoteIterator<ObjectListing>, Closeable {
+    private final LinkedList<ObjectListing> leading;
+    private final List<Shard> shards;
+    private final BlockingQueue<ShardPage> shared;
+    private ObjectListing next;
+    private int shardIndex;
+    private int finishedShards;
+    private boolean closed;
+
+    PageIterator(List<ObjectListing> leading, List<Shard> shards, BlockingQueue<ShardPage> shared) {
+      this.leading = new LinkedList<ObjectListing>(leading);
+      this.shards = shards;
+      this.shared = shared;
+    }
+
+    @Override
+    public boolean hasNext() throws IOException {
+      if (next == null && !closed) {
+        next = leading.poll();
+      }
+      while (next == null && !closed && finishedShards < shards.size()) {
+        ShardPage shardPage;
+        try {
+          shardPage = shared != null ? shared.take() : shards.get(shardIndex).queue.take();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          close();
+          throw new InterruptedIOException("Interrupted while listing " + prefix);
+        }
+        shardPage.shard.taken();
+        if (shardPage.failure != null) {
+          close();
+          if (shardPage.failure instanceof RuntimeException) {
+            throw (RuntimeException) shardPage.failure;
+          }
+          throw new IOException("Failed to list " + prefix, shardPage.failure);
+        }
+        if (shardPage.page == null) {
+          finishedShards++;
+          shardIndex++;
+        } else {
+          next = shardPage.page;
+        }
+      }
+      return next != null;
+    }
+
+    @Override
+    public ObjectListing next() throws IOException {
+      if (!hasNext()) {
+        throw new NoSuchElementException("No more pages under " + prefix);
+      }
+      ObjectListing page = next;
+      next = null;
+      return page;
+    }
+
+    /**
+     * Stop listing the ranges after their current page, and drop the pages not returned yet.
+     */
+    @Override
+    public void close() {
+      closed = true;
+      next = null;
+      leading.clear();
+      for (Shard shard : shards) {
+        shard.cancel();
+        shard.queue.clear();
+      }
+    }
+  }
+}
@@ -0,0 +1,128 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.oss;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalesces concurrent identical requests: the first caller of a key sends the request, and
+ * callers of the same key arriving while it is in flight wait for it and share its result or
+ * its exception. Nothing is kept once the request completes, so results are never older than
+ * the request of the caller.
+ * <p/>
+ * In-flight requests live in a {@link ConcurrentHashMap}, so callers of different keys never
+ * contend. A request which started before the last change made through {@link #invalidate()}
+ * is not shared with later callers, who would otherwise miss their own writes.
+ */
+class OSSSingleFlight<K, V> {
+  private final ConcurrentMap<K, Call<V>> calls = new ConcurrentHashMap<K, Call<V>>();
+  private final AtomicLong generation = new AtomicLong();
+  private final AtomicLong coalesced = new AtomicLong();
+
+  /**
+   * Get the result of the loader for the key, sharing the request in flight for the key if any.
+   *
+   * @throws InterruptedIOException if interrupted while waiting for the request of another caller
+   * @throws RuntimeException       if the loader failed, such as with an OSSException
+   */
+  V execute(K key, Loader<V> loader) throws IOException {
+    Call<V> call = new Call<V>(loader, generation.get());
+    while (true) {
+      Call<V> existing = calls.putIfAbsent(key, call);
+      if (existing == null) {
+        return run(key, call);
+      }
+      if (existing.generation >= call.generation) {
+        coalesced.incrementAndGet();
+        return existing.result();
+      }
+      // started before a change made by this file system, send a fresh request
+      if (calls.replace(key, existing, call)) {
+        return run(key, call);
+      }
+    }
+  }
+
+  /**
+   * Stop sharing requests which are in flight, called after every change of the file system.
+   */
+  void invalidate() {
+    generation.incrementAndGet();
+  }
+
+  /**
+   * @return the number of callers which shared the request of another caller
+   */
+  long getCoalesced() {
+    return coalesced.get();
+  }
+
+  private V run(K key, Call<V> call) throws IOException {
+    try {
+      call.run();
+    } finally {
+      calls.remove(key, call);
+    }
+    return call.result();
+  }
+
+  /**
+   * Sends a request, failing with unchecked exceptions only so that it can also be called
+   * directly when requests are not coalesced.
+   */
+  interface Loader<V> {
+    V load();
+  }
+
+  private static final class Call<V> extends FutureTask<V> {
+    private final long generation;
+
+    Call(final Loader<V> loader, long generation) {
+      super(new Callable<V>() {
+        @Override
+        public V call() {
+          return loader.load();
+        }
+      });
+      this.generation = generation;
+    }
+
+    V result() throws IOException {
+      try {
+        return get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while waiting for a shared request");
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof RuntimeException) {
+          throw (RuntimeException) cause;
+        }
+        throw (Error) cause;
+      }
+    }
+  }
+}
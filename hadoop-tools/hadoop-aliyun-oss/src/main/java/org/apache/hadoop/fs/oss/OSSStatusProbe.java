@@ -0,0 +1,74 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.oss;
+
+import java.util.Locale;
+
+/**
+ * How {@link OSSFileSystem#getFileStatus} finds out what a path is.
+ */
+public enum OSSStatusProbe {
+  /**
+   * HEAD the key, then HEAD the directory marker, then LIST under the directory,
+   * up to three sequential round trips.
+   */
+  Sequential("sequential"),
+  /**
+   * One LIST of at most two keys starting with the key, which tells a file, a directory marker
+   * and a non-empty directory apart. A second LIST is only needed when sibling keys sorting
+   * before the directory, like "key.tmp", fill the first one.
+   */
+  List("list"),
+  /**
+   * HEAD the key and LIST under the directory at the same time, one round trip of latency
+   * for two requests.
+   */
+  Parallel("parallel");
+
+  private final String name;
+
+  OSSStatusProbe(String name) {
+    this.name = name;
+  }
+
+  @Override
+  public String toString() {
+    return name;
+  }
+
+  /**
+   * Choose the probe from its configuration name, unknown names fall back to sequential.
+   *
+   * @param name probe name, case insensitive
+   * @return the status probe
+   */
+  public static OSSStatusProbe getProbe(String name) {
+    String trimmed = name.trim().toLowerCase(Locale.ENGLISH);
+    if (List.name.equals(trimmed)) {
+      return List;
+    }
+    if (Parallel.name.equals(trimmed)) {
+      return Parallel;
+    }
+    if (!Sequential.name.equals(trimmed)) {
+      OSSFileSystem.LOG.warn("Unrecognized status probe {}, using {}", name, Sequential);
+    }
+    return Sequential;
+  }
+}
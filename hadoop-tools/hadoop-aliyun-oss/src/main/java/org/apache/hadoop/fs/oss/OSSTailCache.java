@@ -0,0 +1,241 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.oss;
+
+import com.aliyun.oss.ClientException;
+import com.aliyun.oss.OSSClient;
+import com.aliyun.oss.OSSException;
+import com.aliyun.oss.model.GetObjectRequest;
+import org.apache.hadoop.io.IOUtils;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the last bytes of recently opened objects in memory, for all file systems of the JVM.
+ * <p/>
+ * Columnar formats such as Parquet and ORC read the footer at the end of a file before anything
+ * else, and the same file is opened many times by split planning and by the tasks reading it.
+ * The tail of an object is fetched on the executor of the file system as soon as the object is
+ * opened, so the footer read which follows usually finds it in memory, and every later open of
+ * the same object does not fetch it again. Tails are keyed by bucket, key and ETag, so a
+ * replaced object never reads the tail of its previous version, which is evicted as the least
+ * recently used once the cache is full.
+ */
+class OSSTailCache {
+  public static final Logger LOG = OSSFileSystem.LOG;
+
+  private static OSSTailCache instance;
+
+  private final long maxSize;
+  // bytes of the tails in the cache, fetched or not
+  private long size;
+  private final LinkedHashMap<String, Tail> tails = new LinkedHashMap<String, Tail>(16, 0.75f, true);
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  private OSSTailCache(long maxSize) {
+    this.maxSize = maxSize;
+  }
+
+  /**
+   * Get the cache shared by all file systems, creating it with the given size if this is the
+   * first file system using it.
+   */
+  static synchronized OSSTailCache getInstance(long maxSize) {
+    if (instance == null) {
+      instance = new OSSTailCache(maxSize);
+    }
+    return instance;
+  }
+
+  long getHits() {
+    return hits.get();
+  }
+
+  long getMisses() {
+    return misses.get();
+  }
+
+  /**
+   * Get the tail of an object, starting to fetch it on the executor if no file system of the
+   * JVM did already. If the executor is busy the tail is fetched by its first reader.
+   *
+   * @param tailSize the number of bytes at the end of the object to fetch
+   */
+  Tail getTail(OSSClient client, ExecutorService executor, String bucket, String key, String eTag,
+               long contentLength, int tailSize) {
+    String cacheKey = bucket + "\n" + key + "\n" + eTag;
+    Tail tail;
+    synchronized (this) {
+      tail = tails.get(cacheKey);
+      if (tail != null) {
+        hits.incrementAndGet();
+        return tail;
+      }
+      misses.incrementAndGet();
+      tail = new Tail(cacheKey, new Fetcher(client, bucket, key, eTag, contentLength, tailSize),
+              Math.max(0, contentLength - tailSize));
+      if (tail.length <= maxSize) {
+        tails.put(cacheKey, tail);
+        size += tail.length;
+        Iterator<Tail> eldest = tails.values().iterator();
+        while (size > maxSize) {
+          size -= eldest.next().length;
+          eldest.remove();
+        }
+      }
+    }
+
+    try {
+      executor.execute(tail);
+    } catch (RejectedExecutionException e) {
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Tail cache pool is saturated, the first read of the tail of " + key + " fetches it");
+      }
+    }
+    return tail;
+  }
+
+  private synchronized void remove(Tail tail) {
+    if (tails.get(tail.cacheKey) == tail) {
+      tails.remove(tail.cacheKey);
+      size -= tail.length;
+    }
+  }
+
+  /**
+   * The last bytes of an object, which may still be being fetched.
+   */
+  class Tail extends FutureTask<byte[]> {
+    private final String cacheKey;
+    private final long start;
+    private final long length;
+
+    Tail(String cacheKey, Fetcher fetcher, long start) {
+      super(fetcher);
+      this.cacheKey = cacheKey;
+      this.start = start;
+      this.length = fetcher.contentLength - start;
+    }
+
+    /**
+     * @return the offset of the first byte of the tail in the object
+     */
+    long getStart() {
+      return start;
+    }
+
+    /**
+     * Get the bytes of the tail, fetching them on this thread if no thread started yet.
+     *
+     * @throws IOException if the tail could not be fetched
+     */
+    byte[] getBytes() throws IOException {
+      // does nothing if the tail is being fetched or was fetched
+      run();
+      try {
+        return get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while waiting for the tail of " + cacheKey);
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof IOException) {
+          throw (IOException) cause;
+        }
+        throw new IOException("Failed to read the tail of " + cacheKey, cause);
+      }
+    }
+
+    @Override
+    protected void done() {
+      if (isCancelled()) {
+        remove(this);
+        return;
+      }
+      try {
+        get();
+      } catch (InterruptedException | ExecutionException e) {
+        // drop the failed tail so that the next open fetches it again
+        remove(this);
+      }
+    }
+  }
+
+  /**
+   * Fetch the tail of an object with a bounded ranged GET, of the version with the ETag only.
+   */
+  static class Fetcher implements Callable<byte[]> {
+    private final OSSClient client;
+    private final String bucket;
+    private final String key;
+    private final String eTag;
+    private final long contentLength;
+    private final int tailSize;
+
+    Fetcher(OSSClient client, String bucket, String key, String eTag, long contentLength, int tailSize) {
+      this.client = client;
+      this.bucket = bucket;
+      this.key = key;
+      this.eTag = eTag;
+      this.contentLength = contentLength;
+      this.tailSize = tailSize;
+    }
+
+    @Override
+    public byte[] call() throws IOException {
+      long start = Math.max(0, contentLength - tailSize);
+      byte[] tail = new byte[(int) (contentLength - start)];
+      GetObjectRequest request = new GetObjectRequest(bucket, key);
+      request.setRange(start, contentLength - 1);
+      // a replaced object fails the fetch, which drops the tail, rather than caching its new bytes
+      request.setMatchingETagConstraints(Collections.singletonList(eTag));
+      InputStream in;
+      try {
+        in = client.getObject(request).getObjectContent();
+      } catch (OSSException | ClientException e) {
+        throw new IOException("Failed to open the tail of " + key, e);
+      }
+      if (in == null) {
+        throw new IOException("Null IO stream");
+      }
+      try {
+        IOUtils.readFully(in, tail, 0, tail.length);
+      } finally {
+        in.close();
+      }
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Fetched the tail [" + start + ", " + contentLength + ") of " + key);
+      }
+      return tail;
+    }
+  }
+}
@@ -0,0 +1,118 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.fs.oss;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the number of tasks one user may have submitted to a shared executor, so that a user
+ * submitting many tasks, like a large multipart copy, can not take all the threads and queue
+ * slots of the pool and starve the others. Submissions beyond the limit block until one of the
+ * user's own tasks completes, waiting users are served in order.
+ * <p/>
+ * Shutting down this executor does not shut down the shared one.
+ */
+class SemaphoredDelegatingExecutor extends AbstractExecutorService {
+
+  private final ExecutorService delegate;
+  private final Semaphore permits;
+  private volatile boolean shutdown;
+
+  /**
+   * @param delegate    the shared executor
+   * @param permitCount the maximum number of tasks submitted and not completed
+   */
+  SemaphoredDelegatingExecutor(ExecutorService delegate, int permitCount) {
+    this(delegate, new Semaphore(permitCount, true));
+  }
+
+  /**
+   * @param delegate the shared executor
+   * @param permits  permits of the tasks submitted and not completed, may be shared by several
+   *                 executors so that they are limited together
+   */
+  SemaphoredDelegatingExecutor(ExecutorService delegate, Semaphore permits) {
+    this.delegate = delegate;
+    this.permits = permits;
+  }
+
+  @Override
+  public void execute(final Runnable command) {
+    if (shutdown) {
+      throw new RejectedExecutionException("Executor is shut down");
+    }
+    try {
+      permits.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RejectedExecutionException("Interrupted while waiting to submit a task", e);
+    }
+    try {
+      delegate.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            command.run();
+          } finally {
+            permits.release();
+          }
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      permits.release();
+      throw e;
+    }
+  }
+
+  int getAvailablePermits() {
+    return permits.availablePermits();
+  }
+
+  @Override
+  public void shutdown() {
+    shutdown = true;
+  }
+
+  @Override
+  public List<Runnable> shutdownNow() {
+    shutdown = true;
+    return Collections.emptyList();
+  }
+
+  @Override
+  public boolean isShutdown() {
+    return shutdown;
+  }
+
+  @Override
+  public boolean isTerminated() {
+    return shutdown;
+  }
+
+  @Override
+  public boolean awaitTermination(long timeout, TimeUnit unit) {
+    return shutdown;
+  }
+}
@@ -23,12 +23,21 @@ package org.apache.hadoop.fs.oss;
 import com.aliyun.oss.ClientException;
 import com.aliyun.oss.OSSClient;
 import com.aliyun.oss.OSSException;
+import com.aliyun.oss.model.AbortMultipartUploadRequest;
 import com.aliyun.oss.model.CompleteMultipartUploadRequest;
 import com.aliyun.oss.model.CompleteMultipartUploadResult;
 import com.aliyun.oss.model.CopyObjectRequest;
 import com.aliyun.oss.model.CopyObjectResult;
+import com.aliyun.oss.model.DeleteObjectsRequest;
+import com.aliyun.oss.model.DeleteObjectsResult;
+import com.aliyun.oss.model.GenericRequest;
+import com.aliyun.oss.model.GetObjectRequest;
+import com.aliyun.oss.model.HeadObjectRequest;
 import com.aliyun.oss.model.InitiateMultipartUploadRequest;
 import com.aliyun.oss.model.InitiateMultipartUploadResult;
+import com.aliyun.oss.model.ListObjectsRequest;
+import com.aliyun.oss.model.OSSObject;
+import com.aliyun.oss.model.ObjectListing;
 import com.aliyun.oss.model.ObjectMetadata;
 import com.aliyun.oss.model.PartETag;
 import com.aliyun.oss.model.PutObjectRequest;
@@ -37,22 +46,29 @@ import com.aliyun.oss.model.UploadPartCopyRequest;
 import com.aliyun.oss.model.UploadPartCopyResult;
 import com.aliyun.oss.model.UploadPartRequest;
 import com.aliyun.oss.model.UploadPartResult;
+import com.aliyun.oss.model.WebServiceRequest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Future;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -65,13 +81,390 @@ public class SmartOSSClient extends OSSClient {
   private ExecutorService threadPoolExecutor;
   public static final Logger LOG = LoggerFactory.getLogger(OSSClient.class);
 
+  // the pool shared by all clients of the JVM, and the number of clients using it
+  private static BlockingThreadPoolExecutorService sharedPool;
+  private static int sharedPoolUsers;
+  // permits of the tasks each bucket may have in the shared pool
+  private static final ConcurrentMap<String, Semaphore> BUCKET_PERMITS = new ConcurrentHashMap<String, Semaphore>();
+
+  // makes PUT and multipart uploads fail instead of replacing an existing object
+  static final String FORBID_OVERWRITE_HEADER = "x-oss-forbid-overwrite";
+  // error code of a write refused because of the forbid-overwrite header
+  static final String FILE_ALREADY_EXISTS = "FileAlreadyExists";
+  // error codes of requests refused because of the request rate or an overloaded server, other
+  // errors such as InternalError or RequestTimeout are left to the retries of the SDK
+  private static final Set<String> THROTTLING_ERRORS = new HashSet<String>(Arrays.asList(
+          "ServiceUnavailable", "SlowDown", "QpsLimitExceeded", "TooManyRequests"));
+  // limiters of the write requests to each bucket, shared by all clients of the JVM
+  private static final ConcurrentMap<String, OSSConcurrencyLimiter> BUCKET_LIMITERS =
+          new ConcurrentHashMap<String, OSSConcurrencyLimiter>();
+
+  // metrics of the file system using this client, null if not set
+  private volatile OSSInstrumentation instrumentation;
+  // adapts the concurrency of write requests to throttling, null if disabled
+  private OSSConcurrencyLimiter limiter;
+
   public SmartOSSClient(String endpoint, String accessKeyId, String secretAccessKey,
                         SmartOSSClientConfig config) {
+    this(endpoint, accessKeyId, secretAccessKey, config, "");
+  }
+
+  /**
+   * @param bucket the bucket mostly accessed by this client, the clients of a bucket share
+   *               a fair part of the JVM-wide thread pool
+   */
+  public SmartOSSClient(String endpoint, String accessKeyId, String secretAccessKey,
+                        SmartOSSClientConfig config, String bucket) {
     super(endpoint, accessKeyId, secretAccessKey, config);
     this.configuration = config;
-    threadPoolExecutor = new ThreadPoolExecutor(SmartOSSClientConfig.DEFAULT_MAX_POOL_SIZE,
-            SmartOSSClientConfig.DEFAULT_MAX_POOL_SIZE, SmartOSSClientConfig.DEFAULT_KEEP_ALIVE_TIME, TimeUnit.SECONDS,
-            new LinkedBlockingQueue<Runnable>());
+    Semaphore permits = BUCKET_PERMITS.get(bucket);
+    if (permits == null) {
+      BUCKET_PERMITS.putIfAbsent(bucket, new Semaphore(config.getBucketMaxActive(), true));
+      permits = BUCKET_PERMITS.get(bucket);
+    }
+    threadPoolExecutor = new SemaphoredDelegatingExecutor(acquireSharedPool(config), permits);
+    if (config.isLimiterEnabled()) {
+      limiter = BUCKET_LIMITERS.get(bucket);
+      if (limiter == null) {
+        BUCKET_LIMITERS.putIfAbsent(bucket,
+                new OSSConcurrencyLimiter(config.getLimiterMinRequests(), config.getLimiterMaxRequests()));
+        limiter = BUCKET_LIMITERS.get(bucket);
+      }
+    }
+  }
+
+  /**
+   * Get the thread pool shared by all clients, creating it with the sizes of the given
+   * configuration if this is the first client.
+   */
+  private static synchronized ExecutorService acquireSharedPool(SmartOSSClientConfig config) {
+    if (sharedPool == null) {
+      sharedPool = new BlockingThreadPoolExecutorService(config.getMaxPoolSize(), config.getMaxQueuedTasks(),
+              config.getKeepAliveTime(), TimeUnit.SECONDS, "oss-transfer-shared");
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("Created shared transfer pool with {} threads and {} queued tasks",
+                config.getMaxPoolSize(), config.getMaxQueuedTasks());
+      }
+    }
+    sharedPoolUsers++;
+    return sharedPool;
+  }
+
+  /**
+   * Shut down the shared pool once its last client is shut down.
+   */
+  private static synchronized void releaseSharedPool() {
+    if (--sharedPoolUsers == 0) {
+      sharedPool.shutdown();
+      sharedPool = null;
+    }
+  }
+
+  /**
+   * An executor for the parts of one multipart operation, which may only use some of the threads
+   * of its bucket so that concurrent streams keep making progress.
+   */
+  private ExecutorService newOperationExecutor() {
+    return new SemaphoredDelegatingExecutor(threadPoolExecutor, configuration.getOperationMaxActive());
+  }
+
+  /**
+   * Record every request of this client, its outcome and latency in the given instrumentation.
+   */
+  void setInstrumentation(OSSInstrumentation instrumentation) {
+    this.instrumentation = instrumentation;
+  }
+
+  /**
+   * @return the limiter of write requests to the bucket of this client, null if disabled
+   */
+  OSSConcurrencyLimiter getConcurrencyLimiter() {
+    return limiter;
+  }
+
+  private void bytesUploaded(long bytes) {
+    OSSInstrumentation metrics = instrumentation;
+    if (metrics != null) {
+      metrics.bytesUploaded(bytes);
+    }
+  }
+
+  /**
+   * One request to OSS, which {@link #send} may repeat when OSS throttles it.
+   */
+  private abstract static class Request<T> {
+    abstract T send();
+
+    /**
+     * Prepare the request to be sent again.
+     *
+     * @return false if it cannot be repeated, for example because its body was consumed
+     */
+    boolean rewind() {
+      return true;
+    }
+  }
+
+  /**
+   * Send a request, waiting for the limiter if it is a write, and repeat it with jittered
+   * exponential backoff while OSS throttles it. The SDK retries network errors on its own.
+   */
+  private <T> T send(OSSInstrumentation.Api api, boolean write, Request<T> request) {
+    OSSConcurrencyLimiter writeLimiter = write ? limiter : null;
+    for (int retries = 0; ; retries++) {
+      long token = 0;
+      if (writeLimiter != null) {
+        try {
+          token = writeLimiter.acquire();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new ClientException(e);
+        }
+      }
+      long start = System.nanoTime();
+      boolean succeeded = false;
+      boolean throttled = false;
+      try {
+        T result = request.send();
+        succeeded = true;
+        return result;
+      } catch (OSSException e) {
+        throttled = isThrottled(e);
+        if (!throttled || retries >= configuration.getThrottleRetries() || !request.rewind()) {
+          throw e;
+        }
+      } finally {
+        OSSInstrumentation metrics = instrumentation;
+        if (metrics != null) {
+          metrics.requestCompleted(api, start, succeeded);
+          if (throttled) {
+            metrics.requestThrottled();
+          }
+        }
+        if (writeLimiter != null) {
+          writeLimiter.release(token, succeeded, throttled);
+        }
+      }
+
+      long delay = backoff(retries);
+      LOG.debug("Request {} was throttled, retrying in {} ms", api, delay);
+      OSSInstrumentation metrics = instrumentation;
+      if (metrics != null) {
+        metrics.requestRetried();
+      }
+      try {
+        Thread.sleep(delay);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new ClientException(e);
+      }
+    }
+  }
+
+  /**
+   * Full jitter: a random delay up to the exponentially growing cap, so that threads throttled
+   * together do not retry together.
+   */
+  private long backoff(int retries) {
+    long cap = Math.min(configuration.getThrottleMaxBackoff(),
+            configuration.getThrottleBaseBackoff() << Math.min(retries, 30));
+    return (long) (ThreadLocalRandom.current().nextDouble() * cap) + 1;
+  }
+
+  /**
+   * @return whether OSS refused the request because of the request rate or an overloaded server
+   */
+  static boolean isThrottled(OSSException e) {
+    return e.getErrorCode() != null && THROTTLING_ERRORS.contains(e.getErrorCode());
+  }
+
+  /**
+   * Mark a request body so that it can be sent again.
+   *
+   * @return whether the body can be reset to the mark
+   */
+  private static boolean markBody(InputStream body, long length) {
+    if (body == null || !body.markSupported()) {
+      return false;
+    }
+    body.mark((int) Math.min(Integer.MAX_VALUE, length + 1));
+    return true;
+  }
+
+  private static boolean resetBody(InputStream body) {
+    try {
+      body.reset();
+      return true;
+    } catch (IOException e) {
+      LOG.debug("Cannot send the request body again: {}", e.toString());
+      return false;
+    }
+  }
+
+  @Override
+  public OSSObject getObject(final GetObjectRequest getObjectRequest) throws OSSException, ClientException {
+    return send(OSSInstrumentation.Api.GET, false, new Request<OSSObject>() {
+      @Override
+      OSSObject send() {
+        return SmartOSSClient.super.getObject(getObjectRequest);
+      }
+    });
+  }
+
+  @Override
+  public ObjectMetadata getObjectMetadata(final GenericRequest genericRequest) throws OSSException, ClientException {
+    return send(OSSInstrumentation.Api.HEAD, false, new Request<ObjectMetadata>() {
+      @Override
+      ObjectMetadata send() {
+        return SmartOSSClient.super.getObjectMetadata(genericRequest);
+      }
+    });
+  }
+
+  @Override
+  public boolean doesObjectExist(final HeadObjectRequest headObjectRequest) throws OSSException, ClientException {
+    return send(OSSInstrumentation.Api.HEAD, false, new Request<Boolean>() {
+      @Override
+      Boolean send() {
+        return SmartOSSClient.super.doesObjectExist(headObjectRequest);
+      }
+    });
+  }
+
+  @Override
+  public ObjectListing listObjects(final ListObjectsRequest listObjectsRequest) throws OSSException, ClientException {
+    return send(OSSInstrumentation.Api.LIST, false, new Request<ObjectListing>() {
+      @Override
+      ObjectListing send() {
+        return SmartOSSClient.super.listObjects(listObjectsRequest);
+      }
+    });
+  }
+
+  @Override
+  public void deleteObject(final GenericRequest genericRequest) throws OSSException, ClientException {
+    send(OSSInstrumentation.Api.DELETE, true, new Request<Void>() {
+      @Override
+      Void send() {
+        SmartOSSClient.super.deleteObject(genericRequest);
+        return null;
+      }
+    });
+  }
+
+  @Override
+  public DeleteObjectsResult deleteObjects(final DeleteObjectsRequest deleteObjectsRequest)
+          throws OSSException, ClientException {
+    return send(OSSInstrumentation.Api.DELETE_OBJECTS, true, new Request<DeleteObjectsResult>() {
+      @Override
+      DeleteObjectsResult send() {
+        return SmartOSSClient.super.deleteObjects(deleteObjectsRequest);
+      }
+    });
+  }
+
+  @Override
+  public UploadPartResult uploadPart(final UploadPartRequest uploadPartRequest) throws OSSException, ClientException {
+    final boolean repeatable = markBody(uploadPartRequest.getInputStream(), uploadPartRequest.getPartSize());
+    UploadPartResult result = send(OSSInstrumentation.Api.UPLOAD_PART, true, new Request<UploadPartResult>() {
+      @Override
+      UploadPartResult send() {
+        return SmartOSSClient.super.uploadPart(uploadPartRequest);
+      }
+
+      @Override
+      boolean rewind() {
+        return repeatable && resetBody(uploadPartRequest.getInputStream());
+      }
+    });
+    bytesUploaded(uploadPartRequest.getPartSize());
+    return result;
+  }
+
+  @Override
+  public UploadPartCopyResult uploadPartCopy(final UploadPartCopyRequest uploadPartCopyRequest)
+          throws OSSException, ClientException {
+    return send(OSSInstrumentation.Api.COPY, true, new Request<UploadPartCopyResult>() {
+      @Override
+      UploadPartCopyResult send() {
+        return SmartOSSClient.super.uploadPartCopy(uploadPartCopyRequest);
+      }
+    });
+  }
+
+  @Override
+  public InitiateMultipartUploadResult initiateMultipartUpload(final InitiateMultipartUploadRequest request)
+          throws OSSException, ClientException {
+    return send(OSSInstrumentation.Api.MULTIPART, true, new Request<InitiateMultipartUploadResult>() {
+      @Override
+      InitiateMultipartUploadResult send() {
+        return SmartOSSClient.super.initiateMultipartUpload(request);
+      }
+    });
+  }
+
+  @Override
+  public CompleteMultipartUploadResult completeMultipartUpload(final CompleteMultipartUploadRequest request)
+          throws OSSException, ClientException {
+    return send(OSSInstrumentation.Api.MULTIPART, true, new Request<CompleteMultipartUploadResult>() {
+      @Override
+      CompleteMultipartUploadResult send() {
+        return SmartOSSClient.super.completeMultipartUpload(request);
+      }
+    });
+  }
+
+  @Override
+  public void abortMultipartUpload(final AbortMultipartUploadRequest request) throws OSSException, ClientException {
+    send(OSSInstrumentation.Api.MULTIPART, true, new Request<Void>() {
+      @Override
+      Void send() {
+        SmartOSSClient.super.abortMultipartUpload(request);
+        return null;
+      }
+    });
+  }
+
+  private CopyObjectResult simpleCopy(final CopyObjectRequest copyObjectRequest) {
+    return send(OSSInstrumentation.Api.COPY, true, new Request<CopyObjectResult>() {
+      @Override
+      CopyObjectResult send() {
+        return SmartOSSClient.super.copyObject(copyObjectRequest);
+      }
+    });
+  }
+
+  private PutObjectResult simplePut(final PutObjectRequest putObjectRequest) {
+    final File file = putObjectRequest.getFile();
+    final long length = file != null ? file.length()
+            : putObjectRequest.getMetadata() != null ? putObjectRequest.getMetadata().getContentLength() : 0;
+    // a file is opened again by every attempt, a stream must be reset
+    final boolean repeatable = file != null || markBody(putObjectRequest.getInputStream(), length);
+    PutObjectResult result = send(OSSInstrumentation.Api.PUT, true, new Request<PutObjectResult>() {
+      @Override
+      PutObjectResult send() {
+        return SmartOSSClient.super.putObject(putObjectRequest);
+      }
+
+      @Override
+      boolean rewind() {
+        return repeatable && (file != null || resetBody(putObjectRequest.getInputStream()));
+      }
+    });
+    bytesUploaded(length);
+    return result;
+  }
+
+  SmartOSSClientConfig getConfiguration() {
+    return configuration;
+  }
+
+  /**
+   * Executor running part uploads and copies of this client, bounded by the share of its bucket
+   * in the JVM-wide pool.
+   */
+  ExecutorService getThreadPoolExecutor() {
+    return threadPoolExecutor;
   }
 
   /**
@@ -88,7 +481,29 @@ public class SmartOSSClient extends OSSClient {
 
     ObjectMetadata metadata = this.getObjectMetadata(copyObjectRequest.getSourceBucketName(), copyObjectRequest.getSourceKey());
     if (!isMultipartCopy(metadata)) {
-      return super.copyObject(copyObjectRequest); //simple copy
+      return simpleCopy(copyObjectRequest); //simple copy
+    } else {
+      return doMultiPartCopy(copyObjectRequest, metadata);  //multi-part copy
+    }
+  }
+
+  /**
+   * Copy an object whose length is already known, for example from a listing, which saves the
+   * HEAD request of the source.
+   *
+   * @param copyObjectRequest
+   * @param contentLength     length of the source object
+   * @return
+   * @throws OSSException
+   * @throws ClientException
+   */
+  public CopyObjectResult copyObject(CopyObjectRequest copyObjectRequest, long contentLength)
+          throws OSSException, ClientException {
+
+    ObjectMetadata metadata = new ObjectMetadata();
+    metadata.setContentLength(contentLength);
+    if (!isMultipartCopy(metadata)) {
+      return simpleCopy(copyObjectRequest); //simple copy
     } else {
       return doMultiPartCopy(copyObjectRequest, metadata);  //multi-part copy
     }
@@ -107,16 +522,16 @@ public class SmartOSSClient extends OSSClient {
           throws OSSException, ClientException {
 
     if (putObjectRequest.getInputStream() != null) {
-      return super.putObject(putObjectRequest);
+      return simplePut(putObjectRequest);
     } else if (putObjectRequest.getFile() != null) {
       File backupFile = putObjectRequest.getFile();
       if (!isMultipartUpload(backupFile)) {
-        return super.putObject(putObjectRequest); ////simple upload
+        return simplePut(putObjectRequest); ////simple upload
       } else {
         return this.doMultiPartUpload(putObjectRequest); //multi-part upload
       }
     }
-    return super.putObject(putObjectRequest);
+    return simplePut(putObjectRequest);
   }
 
   private CopyObjectResult doMultiPartCopy(CopyObjectRequest copyObjectRequest, ObjectMetadata metadata) {
@@ -134,6 +549,7 @@ public class SmartOSSClient extends OSSClient {
 
     //Upload multi-parts by copy mode
     System.out.println("Begin to upload multiparts by copy mode to OSS\n");
+    ExecutorService operationExecutor = newOperationExecutor();
     List<Future<PartETag>> futures = new ArrayList<Future<PartETag>>();
     for (int i = 0; i < totalParts; i++) {
       long startPos = i * optimalPartSize;
@@ -146,7 +562,7 @@ public class SmartOSSClient extends OSSClient {
       uploadPartCopyRequest.setPartSize(curPartSize);
       uploadPartCopyRequest.setBeginIndex(startPos);
       uploadPartCopyRequest.setPartNumber(i + 1);
-      futures.add(threadPoolExecutor.submit(new PartCopyCallable(uploadPartCopyRequest)));
+      futures.add(operationExecutor.submit(new PartCopyCallable(uploadPartCopyRequest)));
     }
 
     List<PartETag> partETags = collectPartETags(futures);
@@ -179,7 +595,11 @@ public class SmartOSSClient extends OSSClient {
 
     //Claim a upload id firstly
     String uploadId;
+    boolean forbidOverwrite = isOverwriteForbidden(putObjectRequest);
     InitiateMultipartUploadRequest request = new InitiateMultipartUploadRequest(putObjectRequest.getBucketName(), putObjectRequest.getKey());
+    if (forbidOverwrite) {
+      forbidOverwrite(request);
+    }
     InitiateMultipartUploadResult result = this.initiateMultipartUpload(request);
     uploadId = result.getUploadId();
 
@@ -191,17 +611,38 @@ public class SmartOSSClient extends OSSClient {
       LOG.info("Begin to upload multi-parts to OSS from a {}\n", backupFile.getPath());
     }
 
+    // every part reads its own region of the file through one channel
+    RandomAccessFile file;
+    try {
+      file = new RandomAccessFile(backupFile, "r");
+    } catch (IOException e) {
+      throw new ClientException(e);
+    }
+    ExecutorService operationExecutor = newOperationExecutor();
     List<Future<PartETag>> futures = new ArrayList<Future<PartETag>>();
-    for (int i = 0; i < totalParts; i++) {
-      long startPos = i * optimalPartSize;
-      long curPartSize = (i + 1 == totalParts) ? (backupFile.length() - startPos) : optimalPartSize;
+    List<PartETag> partETags;
+    try {
+      for (int i = 0; i < totalParts; i++) {
+        long startPos = i * optimalPartSize;
+        long curPartSize = (i + 1 == totalParts) ? (backupFile.length() - startPos) : optimalPartSize;
+
+        futures.add(operationExecutor.submit(new PartUploadCallable(putObjectRequest.getBucketName(), putObjectRequest.getKey(),
+                file.getChannel(), startPos, curPartSize, i + 1, uploadId)));
+      }
 
-      futures.add(threadPoolExecutor.submit(new PartUploadCallable(putObjectRequest.getBucketName(), putObjectRequest.getKey(),
-              backupFile, startPos, curPartSize, i + 1, uploadId)));
+      partETags = collectPartETags(futures);
+    } finally {
+      // not interrupted: an interrupted read closes the shared channel under every other part
+      for (Future<PartETag> future : futures) {
+        future.cancel(false);
+      }
+      try {
+        file.close();
+      } catch (IOException e) {
+        LOG.warn("Failed to close {}: {}", backupFile, e);
+      }
     }
 
-    List<PartETag> partETags = collectPartETags(futures);
-
     //Verify whether all parts are finished
     if (partETags.size() != totalParts) {
       throw new IllegalStateException("Upload multi-parts fail due to some parts are not finished yet");
@@ -220,13 +661,48 @@ public class SmartOSSClient extends OSSClient {
     LOG.info("Completing to upload multi-parts\n");
     CompleteMultipartUploadRequest completeMultipartUploadRequest =
             new CompleteMultipartUploadRequest(putObjectRequest.getBucketName(), putObjectRequest.getKey(), uploadId, partETags);
-    CompleteMultipartUploadResult completeResult = this.completeMultipartUpload(completeMultipartUploadRequest);
+    if (forbidOverwrite) {
+      forbidOverwrite(completeMultipartUploadRequest);
+    }
+    CompleteMultipartUploadResult completeResult;
+    try {
+      completeResult = this.completeMultipartUpload(completeMultipartUploadRequest);
+    } catch (OSSException e) {
+      if (isFileAlreadyExists(e)) {
+        // the object appeared while the parts were uploaded, drop them
+        this.abortMultipartUpload(new AbortMultipartUploadRequest(putObjectRequest.getBucketName(),
+                putObjectRequest.getKey(), uploadId));
+      }
+      throw e;
+    }
     PutObjectResult putObjectResult = new PutObjectResult();
     putObjectResult.setETag(completeResult.getETag());
     return putObjectResult;
 
   }
 
+  /**
+   * Make a write fail with {@link #FILE_ALREADY_EXISTS} instead of replacing an existing object.
+   * OSS checks the header on PutObject, InitiateMultipartUpload and CompleteMultipartUpload.
+   *
+   * @return the request
+   */
+  static <T extends WebServiceRequest> T forbidOverwrite(T request) {
+    request.addHeader(FORBID_OVERWRITE_HEADER, "true");
+    return request;
+  }
+
+  static boolean isOverwriteForbidden(WebServiceRequest request) {
+    return request.getHeaders() != null && "true".equals(request.getHeaders().get(FORBID_OVERWRITE_HEADER));
+  }
+
+  /**
+   * @return whether a write failed because overwriting was forbidden and the object exists
+   */
+  static boolean isFileAlreadyExists(OSSException e) {
+    return FILE_ALREADY_EXISTS.equals(e.getErrorCode());
+  }
+
   private boolean isMultipartUpload(File file) {
     long contentLength = file.length();
     return (contentLength > configuration.getMultipartUploadThreshold());
@@ -292,7 +768,7 @@ public class SmartOSSClient extends OSSClient {
   //inner class
   class PartUploadCallable implements Callable<PartETag> {
 
-    private File localFile;
+    private FileChannel channel;
     private long startPos;
     private long partSize;
     private int partNumber;
@@ -300,8 +776,8 @@ public class SmartOSSClient extends OSSClient {
     private String bucketName;
     private String key;
 
-    public PartUploadCallable(String bucketName, String key, File localFile, long startPos, long partSize, int partNumber, String uploadId) {
-      this.localFile = localFile;
+    public PartUploadCallable(String bucketName, String key, FileChannel channel, long startPos, long partSize, int partNumber, String uploadId) {
+      this.channel = channel;
       this.startPos = startPos;
       this.partSize = partSize;
       this.partNumber = partNumber;
@@ -315,8 +791,7 @@ public class SmartOSSClient extends OSSClient {
       InputStream inputStream = null;
       UploadPartResult uploadPartResult = null;
       try {
-        inputStream = new FileInputStream(this.localFile);
-        inputStream.skip(this.startPos);
+        inputStream = new FileChannelInputStream(this.channel, this.startPos, this.partSize);
 
         UploadPartRequest uploadPartRequest = new UploadPartRequest();
         uploadPartRequest.setBucketName(bucketName);
@@ -346,7 +821,10 @@ public class SmartOSSClient extends OSSClient {
 
   @Override
   public void shutdown() {
-    this.threadPoolExecutor.shutdown();
+    if (!this.threadPoolExecutor.isShutdown()) {
+      this.threadPoolExecutor.shutdown();
+      releaseSharedPool();
+    }
     super.shutdown();
   }
 
@@ -103,8 +103,10 @@ public class SmartOSSClientConfig extends ClientConfiguration {
 
   /**
    * extra configuration for multiple part copy/upload, Thread Pool,
+   * the pool is shared by all file systems of the JVM and sized by the first one
    */
-  // the maximum number of tasks cached if all threads are already uploading
+  // no longer used: the bounded pool starts up to fs.oss.threads.maxsize threads on demand
+  // and lets them time out when idle
   protected static final String HADOOP_CORE_POOL_SIZE = "fs.oss.threads.coresize";
   protected static final int DEFAULT_CORE_POOL_SIZE = 5;
   // the time an idle thread waits before terminating
@@ -113,6 +115,215 @@ public class SmartOSSClientConfig extends ClientConfiguration {
   // the maximum number of threads to allow in the pool used by SmartOSSClient
   protected static final String HADOOP_MAX_POOL_SIZE = "fs.oss.threads.maxsize";
   protected static final int DEFAULT_MAX_POOL_SIZE = 10;
+  // the maximum number of tasks cached if all threads are already uploading, more submissions block
+  protected static final String HADOOP_MAX_QUEUED_TASKS = "fs.oss.threads.maxqueued";
+  protected static final int DEFAULT_MAX_QUEUED_TASKS = 20;
+  // the maximum number of tasks of one bucket in the shared pool, 0 means fs.oss.threads.maxsize
+  protected static final String HADOOP_BUCKET_MAX_ACTIVE = "fs.oss.threads.bucket.maxactive";
+  protected static final int DEFAULT_BUCKET_MAX_ACTIVE = 0;
+  // the maximum number of tasks of one multipart copy or upload in the shared pool,
+  // 0 means half of the bucket share
+  protected static final String HADOOP_OPERATION_MAX_ACTIVE = "fs.oss.threads.operation.maxactive";
+  protected static final int DEFAULT_OPERATION_MAX_ACTIVE = 0;
+
+  /**
+   * extra configuration for throttling, see OSSConcurrencyLimiter,
+   * the limiter is shared by all file systems of a bucket and sized by the first one
+   */
+  // adapt the number of write requests in flight to a bucket to the throttling responses of OSS,
+  // off by default
+  protected static final String HADOOP_LIMITER_ENABLED = "fs.oss.extra.limiter.enabled";
+  protected static final boolean DEFAULT_LIMITER_ENABLED = false;
+  // the lowest number of write requests in flight the limiter shrinks to
+  protected static final String HADOOP_LIMITER_MIN_REQUESTS = "fs.oss.extra.limiter.min.requests";
+  protected static final int DEFAULT_LIMITER_MIN_REQUESTS = 2;
+  // the highest number of write requests in flight, also the initial limit
+  protected static final String HADOOP_LIMITER_MAX_REQUESTS = "fs.oss.extra.limiter.max.requests";
+  protected static final int DEFAULT_LIMITER_MAX_REQUESTS = 64;
+  // the number of times a throttled request is sent again, on top of the retries of the SDK
+  protected static final String HADOOP_THROTTLE_RETRIES = "fs.oss.extra.throttle.retries";
+  protected static final int DEFAULT_THROTTLE_RETRIES = 5;
+  // milliseconds of the first backoff after throttling, doubled by every retry
+  protected static final String HADOOP_THROTTLE_BASE_BACKOFF = "fs.oss.extra.throttle.backoff.base";
+  protected static final long DEFAULT_THROTTLE_BASE_BACKOFF = 100;
+  // the longest backoff in milliseconds
+  protected static final String HADOOP_THROTTLE_MAX_BACKOFF = "fs.oss.extra.throttle.backoff.max";
+  protected static final long DEFAULT_THROTTLE_MAX_BACKOFF = 10000;
+
+  /**
+   * extra configuration for fast upload, see OSSFastOutputStream
+   */
+  // upload parts from memory while the file is written, instead of spilling it to a local file
+  protected static final String HADOOP_FAST_UPLOAD = "fs.oss.extra.fast.upload";
+  protected static final boolean DEFAULT_FAST_UPLOAD = false;
+  // the maximum number of parts of one stream being uploaded at the same time, a writer blocks
+  // when it runs ahead of the uploads
+  protected static final String HADOOP_FAST_UPLOAD_ACTIVE_PARTS = "fs.oss.extra.fast.upload.active.parts";
+  protected static final int DEFAULT_FAST_UPLOAD_ACTIVE_PARTS = 4;
+  // where parts are buffered before upload: "disk" (files in fs.oss.buffer.dir), "array" (heap)
+  // or "bytebuffer" (off-heap direct buffers)
+  protected static final String HADOOP_UPLOAD_BUFFER = "fs.oss.upload.buffer";
+  protected static final String DEFAULT_UPLOAD_BUFFER = "array";
+  // the maximum number of idle memory buffers of each size kept for reuse, shared by all streams
+  protected static final String HADOOP_UPLOAD_BUFFER_POOL_SIZE = "fs.oss.upload.buffer.pool.size";
+  protected static final int DEFAULT_UPLOAD_BUFFER_POOL_SIZE = 16;
+
+  /**
+   * extra configuration for seeks of OSSInputStream
+   */
+  // "sequential" requests the rest of the object on every GET, "random" only the read-ahead range
+  protected static final String HADOOP_INPUT_POLICY = "fs.oss.extra.input.policy";
+  protected static final String DEFAULT_INPUT_POLICY = "sequential";
+  // bytes requested beyond the read in random mode, also the largest forward seek done by skipping
+  // bytes of the open stream rather than issuing a new GET
+  protected static final String HADOOP_READAHEAD_RANGE = "fs.oss.extra.readahead.range";
+  protected static final long DEFAULT_READAHEAD_RANGE = 64 * KB;
+
+  /**
+   * extra configuration for parallel read-ahead of OSSInputStream
+   */
+  // split objects into blocks and prefetch them concurrently instead of reading one ranged GET serially
+  protected static final String HADOOP_READAHEAD_PARALLEL_ENABLED = "fs.oss.extra.readahead.parallel.enabled";
+  protected static final boolean DEFAULT_READAHEAD_PARALLEL_ENABLED = false;
+  // size of each block fetched by a single ranged GET
+  protected static final String HADOOP_READAHEAD_BLOCK_SIZE = "fs.oss.extra.readahead.block.size";
+  protected static final int DEFAULT_READAHEAD_BLOCK_SIZE = 4 * MB;
+  // number of blocks fetched ahead of the current read position
+  protected static final String HADOOP_READAHEAD_BLOCK_COUNT = "fs.oss.extra.readahead.block.count";
+  protected static final int DEFAULT_READAHEAD_BLOCK_COUNT = 4;
+  // maximum number of blocks kept in the LRU cache of each input stream
+  protected static final String HADOOP_READAHEAD_CACHE_BLOCKS = "fs.oss.extra.readahead.cache.blocks";
+  protected static final int DEFAULT_READAHEAD_CACHE_BLOCKS = 8;
+  // the number of threads fetching blocks for all input streams of one file system
+  protected static final String HADOOP_READAHEAD_THREADS = "fs.oss.extra.readahead.threads";
+  protected static final int DEFAULT_READAHEAD_THREADS = 16;
+  // the maximum number of prefetch tasks waiting for a free thread
+  protected static final String HADOOP_READAHEAD_MAX_QUEUED = "fs.oss.extra.readahead.max.queued";
+  protected static final int DEFAULT_READAHEAD_MAX_QUEUED = 64;
+
+  /**
+   * extra configuration for vectored reads of OSSInputStream
+   */
+  // ranges of a vectored read separated by at most this many bytes are read by one GET
+  protected static final String HADOOP_VECTORED_READ_MIN_SEEK = "fs.oss.extra.vectored.read.min.seek";
+  protected static final int DEFAULT_VECTORED_READ_MIN_SEEK = 128 * KB;
+  // the largest range read by one GET after merging
+  protected static final String HADOOP_VECTORED_READ_MAX_MERGED_SIZE = "fs.oss.extra.vectored.read.max.merged.size";
+  protected static final int DEFAULT_VECTORED_READ_MAX_MERGED_SIZE = 4 * MB;
+
+  /**
+   * extra configuration for hedged GETs of OSSInputStream
+   */
+  // send a second GET when the first one is slow to answer, and read from the first to answer
+  protected static final String HADOOP_HEDGED_READ_ENABLED = "fs.oss.extra.hedged.read.enabled";
+  protected static final boolean DEFAULT_HEDGED_READ_ENABLED = false;
+  // the number of threads sending GETs for all input streams of one file system
+  protected static final String HADOOP_HEDGED_READ_THREADS = "fs.oss.extra.hedged.read.threads";
+  protected static final int DEFAULT_HEDGED_READ_THREADS = 32;
+  // milliseconds to wait before hedging, until enough GETs were timed to compute the delay
+  protected static final String HADOOP_HEDGED_READ_DELAY = "fs.oss.extra.hedged.read.delay";
+  protected static final long DEFAULT_HEDGED_READ_DELAY = 500;
+  // lower bound in milliseconds of the computed delay
+  protected static final String HADOOP_HEDGED_READ_MIN_DELAY = "fs.oss.extra.hedged.read.min.delay";
+  protected static final long DEFAULT_HEDGED_READ_MIN_DELAY = 20;
+  // percentile of the recent times to response used as delay
+  protected static final String HADOOP_HEDGED_READ_PERCENTILE = "fs.oss.extra.hedged.read.percentile";
+  protected static final float DEFAULT_HEDGED_READ_PERCENTILE = 95;
+  // the maximum fraction of GETs which are hedged
+  protected static final String HADOOP_HEDGED_READ_BUDGET = "fs.oss.extra.hedged.read.budget";
+  protected static final float DEFAULT_HEDGED_READ_BUDGET = 0.05f;
+
+  /**
+   * extra configuration for the local block cache of OSSInputStream
+   */
+  // keep the blocks read from OSS in files on local disks, shared by all processes of the node
+  protected static final String HADOOP_BLOCK_CACHE_ENABLED = "fs.oss.extra.block.cache.enabled";
+  protected static final boolean DEFAULT_BLOCK_CACHE_ENABLED = false;
+  // comma separated local directories of the cache, ${hadoop.tmp.dir}/oss-block-cache if unset
+  protected static final String HADOOP_BLOCK_CACHE_DIRS = "fs.oss.extra.block.cache.dirs";
+  // size of each cached block, which is downloaded by a single ranged GET
+  protected static final String HADOOP_BLOCK_CACHE_BLOCK_SIZE = "fs.oss.extra.block.cache.block.size";
+  protected static final int DEFAULT_BLOCK_CACHE_BLOCK_SIZE = 4 * MB;
+  // bytes of blocks kept over all directories, the least recently used blocks are evicted beyond
+  protected static final String HADOOP_BLOCK_CACHE_MAX_SIZE = "fs.oss.extra.block.cache.max.size";
+  protected static final long DEFAULT_BLOCK_CACHE_MAX_SIZE = 10 * GB;
+
+  /**
+   * extra configuration for the in-memory tail cache of OSSInputStream
+   */
+  // fetch the tail of objects when they are opened, and keep it in memory for the footer reads
+  // of columnar formats
+  protected static final String HADOOP_TAIL_CACHE_ENABLED = "fs.oss.extra.tail.cache.enabled";
+  protected static final boolean DEFAULT_TAIL_CACHE_ENABLED = false;
+  // bytes at the end of each object fetched on open
+  protected static final String HADOOP_TAIL_CACHE_TAIL_SIZE = "fs.oss.extra.tail.cache.tail.size";
+  protected static final int DEFAULT_TAIL_CACHE_TAIL_SIZE = 64 * KB;
+  // bytes of tails kept for all file systems of the JVM, set by the first file system using it
+  protected static final String HADOOP_TAIL_CACHE_MAX_SIZE = "fs.oss.extra.tail.cache.max.size";
+  protected static final long DEFAULT_TAIL_CACHE_MAX_SIZE = 64 * MB;
+  // the number of threads fetching tails for all input streams of one file system
+  protected static final String HADOOP_TAIL_CACHE_THREADS = "fs.oss.extra.tail.cache.threads";
+  protected static final int DEFAULT_TAIL_CACHE_THREADS = 8;
+
+  /**
+   * extra configuration for directory operations
+   */
+  // the number of threads copying and deleting objects of directory renames and deletes,
+  // shared by all operations of one file system
+  protected static final String HADOOP_BULK_THREADS = "fs.oss.extra.bulk.threads";
+  protected static final int DEFAULT_BULK_THREADS = 10;
+  // compute content summaries by listing the subdirectories of the path in parallel on the bulk pool
+  protected static final String HADOOP_CONTENT_SUMMARY_PARALLEL = "fs.oss.extra.content.summary.parallel";
+  protected static final boolean DEFAULT_CONTENT_SUMMARY_PARALLEL = false;
+  // split large listings into this many key ranges listed at once on the bulk pool, 1 to disable
+  protected static final String HADOOP_LISTING_SHARDS = "fs.oss.extra.listing.shards";
+  protected static final int DEFAULT_LISTING_SHARDS = 1;
+  // maximum number of single-key listings used to find the boundaries of the key ranges, never more
+  // than 4 per range; only listings longer than two pages are split
+  protected static final String HADOOP_LISTING_SAMPLES = "fs.oss.extra.listing.samples";
+  protected static final int DEFAULT_LISTING_SAMPLES = 256;
+  // expand globs with one listing of their literal prefix if it holds at most this many keys, 0 to disable
+  protected static final String HADOOP_GLOB_MAX_KEYS = "fs.oss.extra.glob.max.keys";
+  protected static final int DEFAULT_GLOB_MAX_KEYS = 100000;
+  // what happens to the directory markers above a written object: "delete" (probe and delete up to
+  // the root), "parent" (delete the parent marker once, without probing) or "keep"
+  protected static final String HADOOP_DIRECTORY_MARKER_POLICY = "fs.oss.extra.directory.marker.policy";
+  protected static final String DEFAULT_DIRECTORY_MARKER_POLICY = "delete";
+  // create files without overwrite using the forbid-overwrite header of OSS instead of an existence probe,
+  // the endpoint must support the header; an existing file then only fails the upload when the stream
+  // is closed (or when a multipart upload completes), not create() itself, directories are still probed
+  protected static final String HADOOP_CREATE_FORBID_OVERWRITE = "fs.oss.extra.create.forbid.overwrite";
+  protected static final boolean DEFAULT_CREATE_FORBID_OVERWRITE = false;
+  // download large files of copyToLocalFile with concurrent ranged GETs on the bulk pool
+  protected static final String HADOOP_DOWNLOAD_PARALLEL_ENABLED = "fs.oss.extra.download.parallel.enabled";
+  protected static final boolean DEFAULT_DOWNLOAD_PARALLEL_ENABLED = false;
+  // files smaller than this are downloaded through a single stream
+  protected static final String HADOOP_DOWNLOAD_PARALLEL_THRESHOLD = "fs.oss.extra.download.parallel.threshold";
+  protected static final long DEFAULT_DOWNLOAD_PARALLEL_THRESHOLD = 64 * MB;
+  // size of each ranged GET of a parallel download
+  protected static final String HADOOP_DOWNLOAD_PART_SIZE = "fs.oss.extra.download.part.size";
+  protected static final long DEFAULT_DOWNLOAD_PART_SIZE = 8 * MB;
+
+  /**
+   * extra configuration for the file status cache, see OSSMetadataCache
+   */
+  // cache file statuses, including paths which do not exist, to save the HEAD and LIST probes
+  protected static final String HADOOP_METADATA_CACHE_ENABLED = "fs.oss.extra.metadata.cache.enabled";
+  protected static final boolean DEFAULT_METADATA_CACHE_ENABLED = false;
+  // the maximum number of cached paths of one file system
+  protected static final String HADOOP_METADATA_CACHE_MAX_ENTRIES = "fs.oss.extra.metadata.cache.max.entries";
+  protected static final int DEFAULT_METADATA_CACHE_MAX_ENTRIES = 10000;
+  // how long a cached status is trusted, in milliseconds, changes made by other clients are
+  // only seen after it expired
+  protected static final String HADOOP_METADATA_CACHE_TTL = "fs.oss.extra.metadata.cache.ttl";
+  protected static final long DEFAULT_METADATA_CACHE_TTL = 10000;
+  // how getFileStatus probes a path: "sequential" (HEAD, HEAD, LIST), "list" (a single LIST)
+  // or "parallel" (HEAD and LIST at the same time)
+  protected static final String HADOOP_STATUS_PROBE = "fs.oss.extra.status.probe";
+  protected static final String DEFAULT_STATUS_PROBE = "sequential";
+  // let concurrent getFileStatus calls of the same path share the HEADs and listings in flight
+  protected static final String HADOOP_METADATA_COALESCING_ENABLED = "fs.oss.extra.metadata.coalescing.enabled";
+  protected static final boolean DEFAULT_METADATA_COALESCING_ENABLED = true;
 
 
   /**
@@ -134,6 +345,15 @@ public class SmartOSSClientConfig extends ClientConfiguration {
   private int corePoolSize = DEFAULT_CORE_POOL_SIZE;
   private int keepAliveTime = DEFAULT_KEEP_ALIVE_TIME;
   private int maxPoolSize = DEFAULT_MAX_POOL_SIZE;
+  private int maxQueuedTasks = DEFAULT_MAX_QUEUED_TASKS;
+  private int bucketMaxActive = DEFAULT_BUCKET_MAX_ACTIVE;
+  private int operationMaxActive = DEFAULT_OPERATION_MAX_ACTIVE;
+  private boolean limiterEnabled = DEFAULT_LIMITER_ENABLED;
+  private int limiterMinRequests = DEFAULT_LIMITER_MIN_REQUESTS;
+  private int limiterMaxRequests = DEFAULT_LIMITER_MAX_REQUESTS;
+  private int throttleRetries = DEFAULT_THROTTLE_RETRIES;
+  private long throttleBaseBackoff = DEFAULT_THROTTLE_BASE_BACKOFF;
+  private long throttleMaxBackoff = DEFAULT_THROTTLE_MAX_BACKOFF;
 
 
   public long getMinimumUploadPartSize() {
@@ -195,4 +415,76 @@ public class SmartOSSClientConfig extends ClientConfiguration {
     this.multipartCopyThreshold = multipartCopyThreshold;
   }
 
+  public int getMaxQueuedTasks() {
+    return maxQueuedTasks;
+  }
+
+  public void setMaxQueuedTasks(int maxQueuedTasks) {
+    this.maxQueuedTasks = maxQueuedTasks;
+  }
+
+  public int getBucketMaxActive() {
+    return bucketMaxActive > 0 ? bucketMaxActive : maxPoolSize;
+  }
+
+  public void setBucketMaxActive(int bucketMaxActive) {
+    this.bucketMaxActive = bucketMaxActive;
+  }
+
+  public int getOperationMaxActive() {
+    return operationMaxActive > 0 ? operationMaxActive : Math.max(1, getBucketMaxActive() / 2);
+  }
+
+  public void setOperationMaxActive(int operationMaxActive) {
+    this.operationMaxActive = operationMaxActive;
+  }
+
+  public boolean isLimiterEnabled() {
+    return limiterEnabled;
+  }
+
+  public void setLimiterEnabled(boolean limiterEnabled) {
+    this.limiterEnabled = limiterEnabled;
+  }
+
+  public int getLimiterMinRequests() {
+    return limiterMinRequests;
+  }
+
+  public void setLimiterMinRequests(int limiterMinRequests) {
+    this.limiterMinRequests = limiterMinRequests;
+  }
+
+  public int getLimiterMaxRequests() {
+    return limiterMaxRequests;
+  }
+
+  public void setLimiterMaxRequests(int limiterMaxRequests) {
+    this.limiterMaxRequests = limiterMaxRequests;
+  }
+
+  public int getThrottleRetries() {
+    return throttleRetries;
+  }
+
+  public void setThrottleRetries(int throttleRetries) {
+    this.throttleRetries = throttleRetries;
+  }
+
+  public long getThrottleBaseBackoff() {
+    return throttleBaseBackoff;
+  }
+
+  public void setThrottleBaseBackoff(long throttleBaseBackoff) {
+    this.throttleBaseBackoff = throttleBaseBackoff;
+  }
+
+  public long getThrottleMaxBackoff() {
+    return throttleMaxBackoff;
+  }
+
+  public void setThrottleMaxBackoff(long throttleMaxBackoff) {
+    this.throttleMaxBackoff = throttleMaxBackoff;
+  }
+
 }
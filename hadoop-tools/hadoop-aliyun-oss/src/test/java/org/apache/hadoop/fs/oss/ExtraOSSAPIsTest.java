@@ -26,18 +26,38 @@ import com.aliyun.oss.model.ObjectMetadata;
 import com.aliyun.oss.model.PutObjectRequest;
 import junit.framework.TestCase;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.ContentSummary;
 import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileAlreadyExistsException;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileUtil;
 import org.apache.hadoop.fs.LocalFileSystem;
+import org.apache.hadoop.fs.LocatedFileStatus;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RemoteIterator;
 
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
 import java.io.Writer;
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.apache.hadoop.fs.oss.SmartOSSClientConfig.*;
 
@@ -127,6 +147,709 @@ public class ExtraOSSAPIsTest extends TestCase {
     assertEquals(inputStream.markSupported(), false);
   }
 
+  /**
+   * Test parallel read-ahead, blocks are smaller than the file so reads cross block boundaries.
+   *
+   * @throws Exception
+   */
+  public void testParallelReadAhead() throws Exception {
+    final File sampleFile = createSampleFile(100000); //4.77 MB
+    fileSystem.copyFromLocalFile(false, true, new Path(sampleFile.getAbsolutePath()), path("test/test-readahead"));
+    String originMD5 = org.apache.commons.codec.digest.DigestUtils.md5Hex(new FileInputStream(sampleFile));
+
+    Configuration conf = new Configuration();
+    conf.setBoolean(HADOOP_READAHEAD_PARALLEL_ENABLED, true);
+    conf.setInt(HADOOP_READAHEAD_BLOCK_SIZE, 1 * MB);
+    conf.setInt(HADOOP_READAHEAD_BLOCK_COUNT, 2);
+    OSSFileSystem readAheadFs = new OSSFileSystem();
+    readAheadFs.initialize(URI.create(bucketName), conf);
+    try {
+      FSDataInputStream in = readAheadFs.open(path("test/test-readahead"), 4096);
+      String readMD5 = org.apache.commons.codec.digest.DigestUtils.md5Hex(in);
+      assertEquals(originMD5, readMD5);
+
+      in.seek(sampleFile.length() - 1);
+      assertEquals('\n', in.read());
+      assertEquals(-1, in.read());
+      in.close();
+    } finally {
+      readAheadFs.close();
+    }
+  }
+
+  /**
+   * Test multipart uploads of local files, each part read from its region of the file.
+   *
+   * @throws Exception
+   */
+  public void testMultipartUploadFromFile() throws Exception {
+    final File sampleFile = createSampleFile(100000); //4.77 MB
+    String originMD5 = org.apache.commons.codec.digest.DigestUtils.md5Hex(new FileInputStream(sampleFile));
+
+    Configuration conf = new Configuration();
+    conf.setLong(HADOOP_MULTIPART_UPLOAD_THRESHOLD, 1 * MB);
+    conf.setLong(HADOOP_MULTIPART_UPLOAD_PART_SIZE, 1 * MB);
+    OSSFileSystem uploadFs = new OSSFileSystem();
+    uploadFs.initialize(URI.create(bucketName), conf);
+    try {
+      uploadFs.copyFromLocalFile(false, true, new Path(sampleFile.getAbsolutePath()), path("test/test-upload-file"));
+      FSDataInputStream in = uploadFs.open(path("test/test-upload-file"), 4096);
+      assertEquals(originMD5, org.apache.commons.codec.digest.DigestUtils.md5Hex(in));
+      in.close();
+    } finally {
+      uploadFs.close();
+    }
+  }
+
+  /**
+   * Test copyToLocalFile with concurrent ranged GETs, parts are smaller than the file.
+   *
+   * @throws Exception
+   */
+  public void testParallelDownload() throws Exception {
+    final File sampleFile = createSampleFile(100000); //4.77 MB
+    fileSystem.copyFromLocalFile(false, true, new Path(sampleFile.getAbsolutePath()), path("test/test-download"));
+    String originMD5 = org.apache.commons.codec.digest.DigestUtils.md5Hex(new FileInputStream(sampleFile));
+
+    Configuration conf = new Configuration();
+    conf.setBoolean(HADOOP_DOWNLOAD_PARALLEL_ENABLED, true);
+    conf.setLong(HADOOP_DOWNLOAD_PARALLEL_THRESHOLD, 1 * MB);
+    conf.setLong(HADOOP_DOWNLOAD_PART_SIZE, 1 * MB);
+    OSSFileSystem downloadFs = new OSSFileSystem();
+    downloadFs.initialize(URI.create(bucketName), conf);
+    File localFile = File.createTempFile("oss-download-", ".txt");
+    localFile.deleteOnExit();
+    try {
+      downloadFs.copyToLocalFile(false, path("test/test-download"), new Path(localFile.getAbsolutePath()), true);
+      assertEquals(sampleFile.length(), localFile.length());
+      assertEquals(originMD5, org.apache.commons.codec.digest.DigestUtils.md5Hex(new FileInputStream(localFile)));
+      assertFalse(new File(localFile.getParentFile(), "." + localFile.getName() + ".oss-checkpoint").exists());
+    } finally {
+      downloadFs.close();
+    }
+  }
+
+  /**
+   * Test footer reads served from the tail fetched on open, a second open of the object
+   * sends no GET at all.
+   *
+   * @throws Exception
+   */
+  public void testTailCache() throws Exception {
+    final File sampleFile = createSampleFile(10000); //488 KB
+    fileSystem.copyFromLocalFile(false, true, new Path(sampleFile.getAbsolutePath()), path("test/test-tail-cache"));
+    long length = sampleFile.length();
+    byte[] expected = new byte[1000];
+    RandomAccessFile local = new RandomAccessFile(sampleFile, "r");
+    local.seek(length - expected.length);
+    local.readFully(expected);
+    local.close();
+
+    Configuration conf = new Configuration();
+    conf.setBoolean(HADOOP_TAIL_CACHE_ENABLED, true);
+    conf.setInt(HADOOP_TAIL_CACHE_TAIL_SIZE, 4096);
+    OSSFileSystem tailFs = new OSSFileSystem();
+    tailFs.initialize(URI.create(bucketName), conf);
+    try {
+      for (int i = 0; i < 2; i++) {
+        long hits = tailFs.getTailCache().getHits();
+        long gets = tailFs.getInstrumentation().getRequestCount(OSSInstrumentation.Api.GET);
+        FSDataInputStream in = tailFs.open(path("test/test-tail-cache"), 4096);
+        // the length and magic at the end of a footer, then the footer
+        in.seek(length - 8);
+        byte[] buffer = new byte[8];
+        in.readFully(buffer);
+        assertTrue(Arrays.equals(Arrays.copyOfRange(expected, expected.length - 8, expected.length), buffer));
+        buffer = new byte[expected.length];
+        in.readFully(length - expected.length, buffer);
+        assertTrue(Arrays.equals(expected, buffer));
+        assertEquals(-1, in.read());
+        in.close();
+        if (i > 0) {
+          assertEquals(hits + 1, tailFs.getTailCache().getHits());
+          assertEquals(gets, tailFs.getInstrumentation().getRequestCount(OSSInstrumentation.Api.GET));
+        }
+      }
+
+      // reads before the tail go to OSS
+      FSDataInputStream in = tailFs.open(path("test/test-tail-cache"), 4096);
+      assertEquals('a', in.read());
+      in.close();
+    } finally {
+      tailFs.close();
+    }
+  }
+
+  /**
+   * Test reads served from the local block cache, a second file system sharing the cache
+   * directory reads every block from the disk.
+   *
+   * @throws Exception
+   */
+  public void testBlockCache() throws Exception {
+    final File sampleFile = createSampleFile(100000); //4.77 MB
+    fileSystem.copyFromLocalFile(false, true, new Path(sampleFile.getAbsolutePath()), path("test/test-block-cache"));
+    String originMD5 = org.apache.commons.codec.digest.DigestUtils.md5Hex(new FileInputStream(sampleFile));
+
+    File cacheDir = File.createTempFile("oss-block-cache-", "");
+    cacheDir.delete();
+    Configuration conf = new Configuration();
+    conf.setBoolean(HADOOP_BLOCK_CACHE_ENABLED, true);
+    conf.set(HADOOP_BLOCK_CACHE_DIRS, cacheDir.getAbsolutePath());
+    conf.setInt(HADOOP_BLOCK_CACHE_BLOCK_SIZE, 1 * MB);
+    OSSFileSystem[] cachedFs = new OSSFileSystem[2];
+    try {
+      for (int i = 0; i < cachedFs.length; i++) {
+        cachedFs[i] = new OSSFileSystem();
+        cachedFs[i].initialize(URI.create(bucketName), conf);
+        FSDataInputStream in = cachedFs[i].open(path("test/test-block-cache"), 4096);
+        assertEquals(originMD5, org.apache.commons.codec.digest.DigestUtils.md5Hex(in));
+        // across the boundary of the first two blocks
+        byte[] buffer = new byte[50];
+        in.readFully(MB - 25, buffer);
+        byte[] expected = new byte[50];
+        RandomAccessFile local = new RandomAccessFile(sampleFile, "r");
+        local.seek(MB - 25);
+        local.readFully(expected);
+        local.close();
+        assertTrue(Arrays.equals(expected, buffer));
+        in.close();
+      }
+      assertEquals(5, cachedFs[0].getBlockCache().getMisses());
+      assertEquals(0, cachedFs[1].getBlockCache().getMisses());
+      assertTrue(cachedFs[1].getBlockCache().getHits() >= 5);
+    } finally {
+      for (OSSFileSystem fs : cachedFs) {
+        if (fs != null) {
+          fs.close();
+        }
+      }
+      FileUtil.fullyDelete(cacheDir);
+    }
+  }
+
+  /**
+   * Test concurrent getFileStatus calls of the same paths, which share their requests.
+   *
+   * @throws Exception
+   */
+  public void testCoalescedFileStatus() throws Exception {
+    final Path file = path("test/test-coalesced-status");
+    final Path missing = path("test/test-coalesced-status-missing");
+    FSDataOutputStream out = fileSystem.create(file, true);
+    out.write(new byte[100]);
+    out.close();
+
+    final int threads = 32;
+    final CountDownLatch start = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+      for (int i = 0; i < threads; i++) {
+        results.add(executor.submit(new Callable<Boolean>() {
+          @Override
+          public Boolean call() throws Exception {
+            start.await();
+            assertEquals(100, fileSystem.getFileStatus(file).getLen());
+            try {
+              fileSystem.getFileStatus(missing);
+              return false;
+            } catch (FileNotFoundException e) {
+              return true;
+            }
+          }
+        }));
+      }
+      start.countDown();
+      for (Future<Boolean> result : results) {
+        assertTrue(result.get());
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    // a path written after the missing probes is seen at once
+    out = fileSystem.create(missing, true);
+    out.close();
+    assertTrue(fileSystem.exists(missing));
+  }
+
+  /**
+   * Test that the limiter shrinks once per burst of throttling and grows back on success.
+   *
+   * @throws Exception
+   */
+  public void testConcurrencyLimiter() throws Exception {
+    OSSConcurrencyLimiter limiter = new OSSConcurrencyLimiter(2, 10);
+    assertEquals(10, limiter.getLimit());
+
+    long[] tokens = new long[10];
+    for (int i = 0; i < tokens.length; i++) {
+      tokens[i] = limiter.acquire();
+    }
+    assertEquals(10, limiter.getInFlight());
+    // all requests of the burst are throttled, the limit only shrinks once
+    for (long token : tokens) {
+      limiter.release(token, false, true);
+    }
+    assertEquals(7, limiter.getLimit());
+    assertEquals(0, limiter.getInFlight());
+    assertEquals(10, limiter.getThrottled());
+
+    // other failures do not grow it
+    for (int i = 0; i < 7; i++) {
+      tokens[i] = limiter.acquire();
+    }
+    for (int i = 0; i < 7; i++) {
+      limiter.release(tokens[i], false, false);
+    }
+    assertEquals(7, limiter.getLimit());
+
+    // successes at the limit grow it back by about one per round of requests
+    for (int round = 0; round < 3; round++) {
+      int limit = limiter.getLimit();
+      for (int i = 0; i < limit; i++) {
+        tokens[i] = limiter.acquire();
+      }
+      for (int i = 0; i < limit; i++) {
+        limiter.release(tokens[i], true, false);
+      }
+    }
+    assertTrue(limiter.getLimit() > 7);
+    assertTrue(limiter.getLimit() <= 10);
+  }
+
+  /**
+   * Test the request and stream metrics of the instrumentation.
+   *
+   * @throws Exception
+   */
+  public void testInstrumentation() throws Exception {
+    OSSInstrumentation instrumentation = ((OSSFileSystem) fileSystem).getInstrumentation();
+    long puts = instrumentation.getRequestCount(OSSInstrumentation.Api.PUT);
+    long gets = instrumentation.getRequestCount(OSSInstrumentation.Api.GET);
+    long heads = instrumentation.getRequestCount(OSSInstrumentation.Api.HEAD);
+    long headErrors = instrumentation.getErrorCount(OSSInstrumentation.Api.HEAD);
+    long opened = instrumentation.getStreamOpened();
+    long bytesRead = instrumentation.getStreamBytesRead();
+
+    FSDataOutputStream out = fileSystem.create(path("test/test-instrumentation"), true);
+    out.write(new byte[1000]);
+    out.close();
+    assertTrue(instrumentation.getRequestCount(OSSInstrumentation.Api.PUT) > puts);
+
+    FSDataInputStream in = fileSystem.open(path("test/test-instrumentation"));
+    assertEquals(1000, in.read(new byte[2000]));
+    in.close();
+    assertTrue(instrumentation.getRequestCount(OSSInstrumentation.Api.GET) > gets);
+    assertEquals(opened + 1, instrumentation.getStreamOpened());
+    assertEquals(bytesRead + 1000, instrumentation.getStreamBytesRead());
+
+    assertFalse(fileSystem.exists(path("test/test-instrumentation-missing")));
+    assertTrue(instrumentation.getRequestCount(OSSInstrumentation.Api.HEAD) > heads);
+    assertTrue(instrumentation.getErrorCount(OSSInstrumentation.Api.HEAD) > headErrors);
+  }
+
+  /**
+   * Test vectored reads of close and distant ranges.
+   *
+   * @throws Exception
+   */
+  public void testVectoredRead() throws Exception {
+    final File sampleFile = createSampleFile(100000); //4.77 MB
+    fileSystem.copyFromLocalFile(false, true, new Path(sampleFile.getAbsolutePath()), path("test/test-vectored-read"));
+
+    List<OSSFileRange> ranges = new ArrayList<OSSFileRange>();
+    ranges.add(new OSSFileRange(4000000, 1000));
+    ranges.add(new OSSFileRange(0, 100));
+    ranges.add(new OSSFileRange(200, 50));
+    ranges.add(new OSSFileRange(2000000, 0));
+    ranges.add(new OSSFileRange(sampleFile.length() - 30, 10));
+    OSSFileRange pastEnd = new OSSFileRange(sampleFile.length() - 10, 20);
+    ranges.add(pastEnd);
+
+    FSDataInputStream in = fileSystem.open(path("test/test-vectored-read"));
+    RandomAccessFile local = new RandomAccessFile(sampleFile, "r");
+    try {
+      ((OSSInputStream) in.getWrappedStream()).readVectored(ranges);
+      for (OSSFileRange range : ranges) {
+        if (range == pastEnd) {
+          continue;
+        }
+        assertEquals(range.getLength(), range.getFuture().get().intValue());
+        byte[] expected = new byte[range.getLength()];
+        local.seek(range.getOffset());
+        local.readFully(expected);
+        assertTrue(Arrays.equals(expected, range.getBuffer()));
+      }
+      try {
+        pastEnd.getFuture().get();
+        fail("Reading past the end should fail");
+      } catch (ExecutionException e) {
+        assertTrue(e.getCause() instanceof EOFException);
+      }
+      assertEquals(0, in.getPos());
+
+      OSSFileRange first = new OSSFileRange(0, 100);
+      try {
+        ((OSSInputStream) in.getWrappedStream()).readVectored(
+                Arrays.asList(first, new OSSFileRange(1000, 100), new OSSFileRange(1050, 10)));
+        fail("Overlapping ranges should be rejected");
+      } catch (IllegalArgumentException e) {
+        // expected
+      }
+      assertFalse(first.getFuture().isDone());
+    } finally {
+      local.close();
+      in.close();
+    }
+  }
+
+  /**
+   * Test reads whose GETs are hedged after a tiny delay.
+   *
+   * @throws Exception
+   */
+  public void testHedgedRead() throws Exception {
+    final File sampleFile = createSampleFile(10000); //488 KB
+    fileSystem.copyFromLocalFile(false, true, new Path(sampleFile.getAbsolutePath()), path("test/test-hedged-read"));
+
+    Configuration conf = new Configuration();
+    conf.setBoolean(HADOOP_HEDGED_READ_ENABLED, true);
+    conf.setLong(HADOOP_HEDGED_READ_DELAY, 1);
+    conf.setLong(HADOOP_HEDGED_READ_MIN_DELAY, 1);
+    conf.setFloat(HADOOP_HEDGED_READ_BUDGET, 1);
+    conf.set(HADOOP_INPUT_POLICY, "random");
+    conf.setLong(HADOOP_READAHEAD_RANGE, 4096);
+    OSSFileSystem hedgedFs = new OSSFileSystem();
+    hedgedFs.initialize(URI.create(bucketName), conf);
+    try {
+      FSDataInputStream in = hedgedFs.open(path("test/test-hedged-read"), 4096);
+      String originMD5 = org.apache.commons.codec.digest.DigestUtils.md5Hex(new FileInputStream(sampleFile));
+      assertEquals(originMD5, org.apache.commons.codec.digest.DigestUtils.md5Hex(in));
+      byte[] buffer = new byte[50];
+      in.readFully(50 * 9000, buffer);
+      assertEquals('a', buffer[0]);
+      in.close();
+      OSSHedgedReadMetrics metrics = hedgedFs.getHedgedReadMetrics();
+      assertTrue(metrics.getHedgedReadOps() > 0);
+      assertTrue(metrics.getHedgedReadWins() <= metrics.getHedgedReadOps());
+    } finally {
+      hedgedFs.close();
+    }
+  }
+
+  /**
+   * Test lazy seeks with bounded GETs of the random input policy.
+   *
+   * @throws Exception
+   */
+  public void testRandomInputPolicy() throws Exception {
+    final File sampleFile = createSampleFile(10000); //488 KB
+    fileSystem.copyFromLocalFile(false, true, new Path(sampleFile.getAbsolutePath()), path("test/test-random-policy"));
+
+    Configuration conf = new Configuration();
+    conf.set(HADOOP_INPUT_POLICY, "random");
+    conf.setLong(HADOOP_READAHEAD_RANGE, 100);
+    OSSFileSystem randomFs = new OSSFileSystem();
+    randomFs.initialize(URI.create(bucketName), conf);
+    try {
+      FSDataInputStream in = randomFs.open(path("test/test-random-policy"), 4096);
+      // every line pair is 50 bytes, "abc...z\n0123...\n"
+      in.seek(50 * 9000);
+      assertEquals('a', in.read());
+      in.seek(50 * 10 + 27);
+      assertEquals('0', in.read());
+      // forward seek within the read-ahead range, served by skipping bytes
+      in.seek(50 * 11);
+      assertEquals('a', in.read());
+      byte[] buf = new byte[1000];
+      in.readFully(buf);
+      assertEquals('b', buf[0]);
+      assertEquals(50 * 11 + 1001, in.getPos());
+      in.close();
+    } finally {
+      randomFs.close();
+    }
+  }
+
+  /**
+   * Test fast upload, the file is larger than the multipart threshold so parts are uploaded while writing.
+   *
+   * @throws Exception
+   */
+  public void testFastUpload() throws Exception {
+    for (String buffer : new String[]{"array", "bytebuffer", "disk"}) {
+      fastUpload(buffer);
+    }
+  }
+
+  private void fastUpload(String buffer) throws Exception {
+    Configuration conf = new Configuration();
+    conf.setBoolean(HADOOP_FAST_UPLOAD, true);
+    conf.set(HADOOP_UPLOAD_BUFFER, buffer);
+    conf.setLong(HADOOP_MULTIPART_UPLOAD_THRESHOLD, 5 * MB);
+    conf.setLong(HADOOP_MULTIPART_UPLOAD_PART_SIZE, 1 * MB);
+    conf.setInt(HADOOP_FAST_UPLOAD_ACTIVE_PARTS, 2);
+    OSSFileSystem fastFs = new OSSFileSystem();
+    fastFs.initialize(URI.create(bucketName), conf);
+    try {
+      byte[] data = new byte[12 * MB + 100];
+      new Random(0).nextBytes(data);
+      FSDataOutputStream out = fastFs.create(path("test/test-fast-upload"), true);
+      out.write(data, 0, 3 * MB);
+      out.write(data, 3 * MB, data.length - 3 * MB);
+      out.close();
+      assertEquals(0, OSSDataBlocks.getBufferedBytes(buffer));
+
+      assertEquals(data.length, fastFs.getFileStatus(path("test/test-fast-upload")).getLen());
+      byte[] read = new byte[data.length];
+      FSDataInputStream in = fastFs.open(path("test/test-fast-upload"), 4096);
+      in.readFully(0, read);
+      in.close();
+      assertTrue(buffer, Arrays.equals(data, read));
+    } finally {
+      fastFs.close();
+    }
+  }
+
+  /**
+   * Test that cached statuses, including missing paths, follow the writes of the file system.
+   *
+   * @throws Exception
+   */
+  public void testMetadataCache() throws Exception {
+    Configuration conf = new Configuration();
+    conf.setBoolean(HADOOP_METADATA_CACHE_ENABLED, true);
+    OSSFileSystem cachedFs = new OSSFileSystem();
+    cachedFs.initialize(URI.create(bucketName), conf);
+    try {
+      Path file = path("test/test-metadata-cache/file");
+      assertFalse(cachedFs.exists(file));
+      FSDataOutputStream out = cachedFs.create(file, true);
+      out.write(new byte[10]);
+      out.close();
+      assertEquals(10, cachedFs.getFileStatus(file).getLen());
+      assertTrue(cachedFs.getFileStatus(file.getParent()).isDirectory());
+
+      assertTrue(cachedFs.delete(file.getParent(), true));
+      assertFalse(cachedFs.exists(file));
+    } finally {
+      cachedFs.close();
+    }
+  }
+
+  /**
+   * Test that the single request probes tell files, empty and non-empty directories apart,
+   * also when sibling keys sort before the directory.
+   *
+   * @throws Exception
+   */
+  public void testStatusProbes() throws Exception {
+    fileSystem.mkdirs(path("test/test-probe/empty"));
+    fileSystem.create(path("test/test-probe/dir.tmp"), true).close();
+    fileSystem.create(path("test/test-probe/dir-1"), true).close();
+    fileSystem.create(path("test/test-probe/dir/file"), true).close();
+    for (String probe : new String[]{"list", "parallel"}) {
+      Configuration conf = new Configuration();
+      conf.set(HADOOP_STATUS_PROBE, probe);
+      OSSFileSystem probeFs = new OSSFileSystem();
+      probeFs.initialize(URI.create(bucketName), conf);
+      try {
+        assertTrue(probe, probeFs.getFileStatus(path("test/test-probe/dir.tmp")).isFile());
+        assertTrue(probe, probeFs.getFileStatus(path("test/test-probe/empty")).isEmptyDirectory());
+        OSSFileStatus dir = probeFs.getFileStatus(path("test/test-probe/dir"));
+        assertTrue(probe, dir.isDirectory() && !dir.isEmptyDirectory());
+        assertFalse(probe, probeFs.exists(path("test/test-probe/missing")));
+      } finally {
+        probeFs.close();
+      }
+    }
+  }
+
+  /**
+   * Test flat recursive listing across partition directories.
+   *
+   * @throws Exception
+   */
+  public void testListFilesRecursive() throws Exception {
+    for (int dt = 0; dt < 3; dt++) {
+      for (int hour = 0; hour < 4; hour++) {
+        fileSystem.create(path("test/test-list/dt=" + dt + "/hour=" + hour + "/part-0"), true).close();
+      }
+    }
+    fileSystem.mkdirs(path("test/test-list/dt=9"));
+
+    int files = 0;
+    RemoteIterator<LocatedFileStatus> it = fileSystem.listFiles(path("test/test-list"), true);
+    while (it.hasNext()) {
+      assertTrue(it.next().isFile());
+      files++;
+    }
+    assertEquals(12, files);
+    assertFalse(fileSystem.listFiles(path("test/test-list"), false).hasNext());
+
+    int entries = 0;
+    RemoteIterator<LocatedFileStatus> dirs = fileSystem.listLocatedStatus(path("test/test-list"));
+    while (dirs.hasNext()) {
+      assertTrue(dirs.next().isDirectory());
+      entries++;
+    }
+    assertEquals(4, entries);
+  }
+
+  /**
+   * Test content summaries computed from flat listings, sequential and parallel.
+   *
+   * @throws Exception
+   */
+  public void testContentSummary() throws Exception {
+    for (int dt = 0; dt < 3; dt++) {
+      for (int hour = 0; hour < 2; hour++) {
+        FSDataOutputStream out = fileSystem.create(path("test/test-summary/dt=" + dt + "/hour=" + hour + "/part-0"), true);
+        out.write(new byte[100]);
+        out.close();
+      }
+    }
+    fileSystem.mkdirs(path("test/test-summary/empty"));
+
+    for (boolean parallel : new boolean[]{false, true}) {
+      Configuration conf = new Configuration();
+      conf.setBoolean(HADOOP_CONTENT_SUMMARY_PARALLEL, parallel);
+      OSSFileSystem summaryFs = new OSSFileSystem();
+      summaryFs.initialize(URI.create(bucketName), conf);
+      try {
+        ContentSummary summary = summaryFs.getContentSummary(path("test/test-summary"));
+        assertEquals(600, summary.getLength());
+        assertEquals(6, summary.getFileCount());
+        // the directory itself, empty, 3 dt= and 6 hour= directories
+        assertEquals(11, summary.getDirectoryCount());
+      } finally {
+        summaryFs.close();
+      }
+    }
+  }
+
+  /**
+   * Test globs expanded from one prefix listing against the generic expansion.
+   *
+   * @throws Exception
+   */
+  public void testGlobStatus() throws Exception {
+    for (int dt = 0; dt < 3; dt++) {
+      for (int hour = 0; hour < 2; hour++) {
+        fileSystem.create(path("test/test-glob/dt=" + dt + "/hour=" + hour + "/part-0"), true).close();
+      }
+    }
+    fileSystem.mkdirs(path("test/test-glob/dt=0/hour=9"));
+
+    Configuration conf = new Configuration();
+    conf.setInt(HADOOP_GLOB_MAX_KEYS, 0);
+    OSSFileSystem genericFs = new OSSFileSystem();
+    genericFs.initialize(URI.create(bucketName), conf);
+    try {
+      for (String pattern : new String[]{"test/test-glob/dt=*/hour=*/part-*", "test/test-glob/dt={0,2}/hour=*",
+              "test/test-glob/dt=[01]/*/part-0", "test/test-glob/dt=*/hour=7/*"}) {
+        FileStatus[] statuses = fileSystem.globStatus(path(pattern));
+        FileStatus[] expected = genericFs.globStatus(path(pattern));
+        assertEquals(pattern, expected.length, statuses.length);
+        for (int i = 0; i < statuses.length; i++) {
+          assertEquals(pattern, expected[i].getPath(), statuses[i].getPath());
+          assertEquals(pattern, expected[i].isDirectory(), statuses[i].isDirectory());
+        }
+      }
+      assertEquals(6, fileSystem.globStatus(path("test/test-glob/dt=*/hour=*/part-*")).length);
+      assertEquals(5, fileSystem.globStatus(path("test/test-glob/dt={0,2}/hour=*")).length);
+    } finally {
+      genericFs.close();
+    }
+  }
+
+  /**
+   * Test the parent and keep directory marker policies.
+   *
+   * @throws Exception
+   */
+  public void testDirectoryMarkerPolicies() throws Exception {
+    for (String policy : new String[]{"parent", "keep"}) {
+      Configuration conf = new Configuration();
+      conf.set(HADOOP_DIRECTORY_MARKER_POLICY, policy);
+      OSSFileSystem markerFs = new OSSFileSystem();
+      markerFs.initialize(URI.create(bucketName), conf);
+      try {
+        Path dir = path("test/test-markers/" + policy + "/a/b");
+        String marker = dir.toUri().getPath().substring(1) + "/";
+        assertTrue(markerFs.mkdirs(dir));
+        markerFs.create(new Path(dir, "f"), true).close();
+        assertEquals(policy.equals("keep"), client.doesObjectExist("hadoop-intg", marker));
+        assertTrue(markerFs.getFileStatus(dir).isDirectory());
+
+        try {
+          markerFs.delete(dir, false);
+          fail("a directory with a stale marker is not empty");
+        } catch (IOException e) {
+          // expected
+        }
+        assertTrue(markerFs.delete(new Path(dir, "f"), false));
+        assertTrue(markerFs.getFileStatus(dir).isDirectory());
+        assertTrue(markerFs.delete(dir.getParent(), true));
+        assertFalse(markerFs.exists(dir));
+      } finally {
+        markerFs.close();
+      }
+    }
+  }
+
+  /**
+   * Test creating files without overwrite checked by OSS, and non-recursive creates.
+   *
+   * @throws Exception
+   */
+  public void testCreateForbidOverwrite() throws Exception {
+    for (boolean fastUpload : new boolean[]{false, true}) {
+      Configuration conf = new Configuration();
+      conf.setBoolean(HADOOP_CREATE_FORBID_OVERWRITE, true);
+      conf.setBoolean(HADOOP_FAST_UPLOAD, fastUpload);
+      OSSFileSystem createFs = new OSSFileSystem();
+      createFs.initialize(URI.create(bucketName), conf);
+      try {
+        Path file = path("test/test-create/" + fastUpload + "/file");
+        FSDataOutputStream out = createFs.create(file, false);
+        out.write(new byte[10]);
+        out.close();
+
+        out = createFs.create(file, false);
+        out.write(new byte[20]);
+        try {
+          out.close();
+          fail("an existing file was overwritten");
+        } catch (FileAlreadyExistsException e) {
+          // expected
+        }
+        assertEquals(10, createFs.getFileStatus(file).getLen());
+
+        try {
+          createFs.create(file.getParent(), false);
+          fail("created a file over a directory");
+        } catch (FileAlreadyExistsException e) {
+          // expected
+        }
+
+        createFs.createNonRecursive(new Path(file.getParent(), "other"), true, 4096, (short) 1,
+                createFs.getDefaultBlockSize(file), null).close();
+        try {
+          createFs.createNonRecursive(path("test/test-create/missing/file"), true, 4096, (short) 1,
+                  createFs.getDefaultBlockSize(file), null);
+          fail("created a file in a missing directory");
+        } catch (FileNotFoundException e) {
+          // expected
+        }
+      } finally {
+        createFs.close();
+      }
+    }
+  }
+
   /**
    * Test high performance copyFromLocal.
    *
@@ -164,6 +887,68 @@ public class ExtraOSSAPIsTest extends TestCase {
 
   }
 
+  /**
+   * test parallel rename of a directory with more than 1000 objects
+   *
+   * @throws Exception
+   */
+  public void testDirectoryRename() throws Exception {
+    final InputStream nullStream = new InputStream() {
+      @Override
+      public int read() throws IOException {
+        return -1;
+      }
+    };
+    client.putObject("hadoop-intg", "test/rename-src/", nullStream);
+    for (int i = 0; i < 1010; i++) {
+      client.putObject("hadoop-intg", "test/rename-src/" + i, nullStream);
+    }
+    assertTrue(fileSystem.rename(path("/test/rename-src"), path("/test/rename-dst")));
+    assertFalse(fileSystem.exists(path("/test/rename-src")));
+    assertEquals(1010, fileSystem.listStatus(path("/test/rename-dst")).length);
+    fileSystem.delete(path("/test"), true);
+  }
+
+  /**
+   * test sharded listing of a directory with more than two pages of objects
+   *
+   * @throws Exception
+   */
+  public void testShardedListing() throws Exception {
+    final InputStream nullStream = new InputStream() {
+      @Override
+      public int read() throws IOException {
+        return -1;
+      }
+    };
+    client.putObject("hadoop-intg", "test/sharded/", nullStream);
+    for (int i = 0; i < 2010; i++) {
+      client.putObject("hadoop-intg", "test/sharded/" + i, nullStream);
+    }
+    Configuration conf = new Configuration();
+    conf.setInt(HADOOP_LISTING_SHARDS, 4);
+    OSSFileSystem shardedFs = new OSSFileSystem();
+    shardedFs.initialize(URI.create(bucketName), conf);
+    try {
+      FileStatus[] statuses = shardedFs.listStatus(path("/test/sharded"));
+      assertEquals(2010, statuses.length);
+      for (int i = 1; i < statuses.length; i++) {
+        assertTrue(statuses[i - 1].getPath().getName().compareTo(statuses[i].getPath().getName()) < 0);
+      }
+
+      int files = 0;
+      RemoteIterator<LocatedFileStatus> it = shardedFs.listFiles(path("/test/sharded"), true);
+      while (it.hasNext()) {
+        it.next();
+        files++;
+      }
+      assertEquals(2010, files);
+    } finally {
+      shardedFs.close();
+    }
+    fileSystem.delete(path("/test"), true);
+  }
+
 
   @Override
   protected void tearDown() throws Exception {